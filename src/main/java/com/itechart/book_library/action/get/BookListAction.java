@@ -4,17 +4,27 @@ import com.itechart.book_library.action.api.Action;
 import com.itechart.book_library.action.api.ActionConstants;
 import com.itechart.book_library.action.api.ActionResult;
 import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.PageCursor;
+import com.itechart.book_library.model.dto.BookPageDto;
 import com.itechart.book_library.service.BookService;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
 import java.util.Properties;
 
 public class BookListAction implements Action {
 
+    private static final String KEYSET_PAGINATION_MODE = "keyset";
+    private static final String[] SEARCH_PARAMETERS = {"title", "authors", "genres", "description"};
+
     private final BookService bookService = BookService.INSTANCE;
     private int pageBookAmount;
+    private boolean keysetPagination;
+    private int pageLinkAmount;
     private static final int DEFAULT_PAGE_NUM = 1;
 
     public BookListAction() {
@@ -22,6 +32,8 @@ public class BookListAction implements Action {
             Properties applicationProperties = new Properties();
             applicationProperties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
             this.pageBookAmount = Integer.parseInt(applicationProperties.getProperty("book-amount-on-one-page"));
+            this.keysetPagination = KEYSET_PAGINATION_MODE.equals(applicationProperties.getProperty("pagination.mode", "offset"));
+            this.pageLinkAmount = Integer.parseInt(applicationProperties.getProperty("pagination.page-links", "5"));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -31,13 +43,37 @@ public class BookListAction implements Action {
     public ActionResult execute(HttpServletRequest req, HttpServletResponse resp) {
         int page = getPage(req);
         BookSpecification specification = getSpecification(req);
-        int totalBookAmount = bookService.getBookCountBySpecification(specification);
+        Optional<PageCursor> cursor = keysetPagination ? PageCursor.decode(req.getParameter("cursor")) : Optional.empty();
+        BookPageDto bookPage = cursor.isPresent()
+                ? bookService.getKeysetBySpecification(specification, cursor.get(), this.pageBookAmount)
+                : bookService.getLimitOffsetBySpecification(specification, this.pageBookAmount, page);
 
-        req.setAttribute("bookList", bookService.getLimitOffsetBySpecification(specification, this.pageBookAmount, page));
-        req.setAttribute("pageAmount", Math.ceil((float) totalBookAmount / this.pageBookAmount));
+        String searchQuery = getSearchQuery(req);
+        int pageAmount = (int) Math.ceil((float) bookPage.getTotalBookAmount() / this.pageBookAmount);
+        req.setAttribute("bookList", bookPage.getBooks());
+        req.setAttribute("pageAmount", keysetPagination ? Math.min(pageAmount, this.pageLinkAmount) : pageAmount);
+        req.setAttribute("totalBookAmount", bookPage.getTotalBookAmountLabel());
+        req.setAttribute("searchQuery", searchQuery);
+        if (bookPage.isHasPrevious()) {
+            req.setAttribute("previousPageUrl", getPageUrl(bookPage.getPreviousCursor(), page - 1, searchQuery));
+        }
+        if (bookPage.isHasNext()) {
+            req.setAttribute("nextPageUrl", getPageUrl(bookPage.getNextCursor(), page + 1, searchQuery));
+        }
         return new ActionResult(ActionConstants.BOOK_LIST_PAGE);
     }
 
+    /**
+     * Links to a neighbouring page by its cursor in keyset mode, so that deep pages cost as much as the first one,
+     * and by its number otherwise.
+     */
+    private String getPageUrl(PageCursor cursor, int page, String searchQuery) {
+        if (keysetPagination && cursor != null) {
+            return "/main?cursor=" + cursor.encode() + searchQuery;
+        }
+        return "/main?page=" + page + searchQuery;
+    }
+
     private int getPage(HttpServletRequest req) {
         return (req.getParameter("page") == null) ? DEFAULT_PAGE_NUM : Integer.parseInt(req.getParameter("page"));
     }
@@ -48,7 +84,17 @@ public class BookListAction implements Action {
                 .authors(req.getParameter("authors"))
                 .genres(req.getParameter("genres"))
                 .description(req.getParameter("description"))
-                .build()
-                .convertSpecificationParametersToRegex();
+                .build();
+    }
+
+    private String getSearchQuery(HttpServletRequest req) {
+        StringBuilder searchQuery = new StringBuilder();
+        for (String parameter : SEARCH_PARAMETERS) {
+            String value = req.getParameter(parameter);
+            if (value != null && !value.isBlank()) {
+                searchQuery.append('&').append(parameter).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
+        }
+        return searchQuery.toString();
     }
 }
@@ -0,0 +1,138 @@
+package com.itechart.book_library.connection;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free container of pooled connections. A thread first looks at the connections it returned
+ * itself, then scans the shared list and only then waits for a connection handed off by another thread.
+ * Ownership of an entry is decided by a CAS on its state, so the shared list is never locked on checkout.
+ */
+class ConcurrentBag {
+
+    private static final int MAX_THREAD_LOCAL_ENTRIES = 16;
+
+    private final CopyOnWriteArrayList<PooledConnection> sharedList = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<WeakReference<PooledConnection>>> threadList = ThreadLocal.withInitial(ArrayList::new);
+    private final SynchronousQueue<PooledConnection> handoffQueue = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    PooledConnection borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        List<WeakReference<PooledConnection>> list = threadList.get();
+        for (int i = list.size() - 1; i >= 0; i--) {
+            PooledConnection pooled = list.remove(i).get();
+            if (pooled != null && pooled.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+                return pooled;
+            }
+        }
+
+        waiters.incrementAndGet();
+        try {
+            for (PooledConnection pooled : sharedList) {
+                if (pooled.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+                    return pooled;
+                }
+            }
+
+            long remaining = unit.toNanos(timeout);
+            while (remaining > 0) {
+                long start = System.nanoTime();
+                PooledConnection pooled = handoffQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (pooled == null
+                        || pooled.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_IN_USE)) {
+                    return pooled;
+                }
+                remaining -= System.nanoTime() - start;
+            }
+            return null;
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gives a connection back. A waiting thread gets it directly, otherwise it is remembered
+     * by the returning thread so that its next checkout does not touch the shared list.
+     */
+    void requite(PooledConnection pooled) {
+        pooled.setState(PooledConnection.STATE_NOT_IN_USE);
+        handOff(pooled);
+
+        List<WeakReference<PooledConnection>> list = threadList.get();
+        if (list.size() < MAX_THREAD_LOCAL_ENTRIES) {
+            list.add(new WeakReference<>(pooled));
+        }
+    }
+
+    void add(PooledConnection pooled) {
+        sharedList.add(pooled);
+        handOff(pooled);
+    }
+
+    /**
+     * Removes a connection that the caller has borrowed or reserved.
+     */
+    boolean remove(PooledConnection pooled) {
+        if (!pooled.compareAndSetState(PooledConnection.STATE_IN_USE, PooledConnection.STATE_REMOVED)
+                && !pooled.compareAndSetState(PooledConnection.STATE_RESERVED, PooledConnection.STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(pooled);
+    }
+
+    /**
+     * Takes an idle connection out of circulation without borrowing it, e.g. for validation.
+     */
+    boolean reserve(PooledConnection pooled) {
+        return pooled.compareAndSetState(PooledConnection.STATE_NOT_IN_USE, PooledConnection.STATE_RESERVED);
+    }
+
+    void unreserve(PooledConnection pooled) {
+        if (pooled.compareAndSetState(PooledConnection.STATE_RESERVED, PooledConnection.STATE_NOT_IN_USE)) {
+            handOff(pooled);
+        }
+    }
+
+    List<PooledConnection> values(int state) {
+        List<PooledConnection> values = new ArrayList<>();
+        for (PooledConnection pooled : sharedList) {
+            if (pooled.getState() == state) {
+                values.add(pooled);
+            }
+        }
+        return values;
+    }
+
+    int count(int state) {
+        int count = 0;
+        for (PooledConnection pooled : sharedList) {
+            if (pooled.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    private void handOff(PooledConnection pooled) {
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (pooled.getState() != PooledConnection.STATE_NOT_IN_USE || handoffQueue.offer(pooled)) {
+                return;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.itechart.book_library.connection;
+
+import java.sql.Connection;
+
+/**
+ * A pooled connection borrowed for one unit of work. Closing the lease resets autocommit,
+ * transaction isolation and read-only mode, rolls back an unfinished transaction and returns
+ * the connection to the pool; the lease cannot be used afterwards.
+ */
+public interface ConnectionLease extends Connection {
+
+    @Override
+    void close();
+}
@@ -1,27 +1,47 @@
 package com.itechart.book_library.connection;
 
+import com.itechart.book_library.metrics.MetricsRegistry;
+import lombok.extern.log4j.Log4j;
+
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+@Log4j
 public class ConnectionPool {
 
     private static volatile ConnectionPool connectionPool;
 
-    private BlockingQueue<Connection> connections;
-    private String url;
-    private String username;
-    private String password;
+    private final LongAdder statementCacheHits = MetricsRegistry.INSTANCE.counter("book_library_statement_cache_hits_total",
+            "Prepared statements served from the per-connection statement cache", "");
+    private final LongAdder statementCacheMisses = MetricsRegistry.INSTANCE.counter("book_library_statement_cache_misses_total",
+            "Prepared statements that had to be prepared on the connection", "");
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final List<DataSourcePool> replicas = new ArrayList<>();
+    private DataSourcePool primary;
+    private ScheduledExecutorService housekeeper;
     private String driver;
-    private int connectionsLimit;
+    private boolean leastBusyBalancing;
+    private long housekeepingPeriod;
+    private int warmUpThreads;
+    private long warmUpTimeout;
 
+    /**
+     * Creates the pool without opening any connection; they are opened by {@link #warmUp()}
+     * or on demand by the first checkouts.
+     */
     private ConnectionPool() {
-        loadDBProperties();
-        init();
+        init(loadDBProperties());
     }
 
     public static ConnectionPool getInstance() {
@@ -37,7 +57,7 @@ public class ConnectionPool {
         return localInstance;
     }
 
-    private void loadDBProperties() {
+    private Properties loadDBProperties() {
         Properties properties = new Properties();
         try {
             properties.load(getClass().getClassLoader().getResourceAsStream("database.properties"));
@@ -45,45 +65,148 @@ public class ConnectionPool {
             e.printStackTrace();
         }
 
-        url = properties.getProperty("url");
-        username = properties.getProperty("username");
-        password = properties.getProperty("password");
         driver = properties.getProperty("driver");
-        connectionsLimit = Integer.parseInt(properties.getProperty("connections.limit"));
+        leastBusyBalancing = "least-busy".equals(properties.getProperty("replicas.balancing", "round-robin"));
+        housekeepingPeriod = Long.parseLong(properties.getProperty("connections.housekeeping-period", "30000"));
+        warmUpThreads = Integer.parseInt(properties.getProperty("connections.warm-up-threads", "4"));
+        warmUpTimeout = Long.parseLong(properties.getProperty("connections.warm-up-timeout", "10000"));
+        return properties;
     }
 
-    private void init() {
+    private void init(Properties properties) {
         try {
             Class.forName(driver);
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        connections = new ArrayBlockingQueue<>(connectionsLimit);
-        while (connections.size() != connectionsLimit) {
+        primary = new DataSourcePool("primary", properties.getProperty("url"), properties, statementCacheHits, statementCacheMisses);
+        String replicaUrls = properties.getProperty("replicas.urls", "");
+        for (String replicaUrl : replicaUrls.split(" *, *")) {
+            if (!replicaUrl.isBlank()) {
+                replicas.add(new DataSourcePool("replica-" + (replicas.size() + 1), replicaUrl, properties,
+                        statementCacheHits, statementCacheMisses));
+            }
+        }
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::houseKeep, housekeepingPeriod, housekeepingPeriod, TimeUnit.MILLISECONDS);
+        long leakDetectionThreshold = primary.getLeakDetectionThreshold();
+        if (leakDetectionThreshold > 0) {
+            long period = Math.max(1000, leakDetectionThreshold / 2);
+            housekeeper.scheduleWithFixedDelay(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Borrows a connection to the primary database. Use it for writes and for reads inside write transactions,
+     * and close the lease when done, preferably with try-with-resources.
+     *
+     * @throws ConnectionPoolException if no connection becomes available within the acquire timeout
+     */
+    public ConnectionLease getConnection() {
+        return primary.getConnection();
+    }
+
+    /**
+     * Borrows a connection for a standalone read. It comes from a read replica when one is configured
+     * and healthy, otherwise from the primary.
+     *
+     * @throws ConnectionPoolException if no connection becomes available within the acquire timeout
+     */
+    public ConnectionLease getReadOnlyConnection() {
+        DataSourcePool replica = chooseReplica();
+        if (replica != null) {
             try {
-                Connection connection = DriverManager.getConnection(url, username, password);
-                connections.put(connection);
-            } catch (SQLException | InterruptedException e) {
-                e.printStackTrace();
+                return replica.getConnection();
+            } catch (ConnectionPoolException e) {
+                log.warn("Falling back to primary database: " + e.getMessage());
             }
         }
+        return primary.getConnection();
     }
 
-    public Connection getConnection() {
-        Connection currentConnection = null;
+    /**
+     * Opens the minimum number of connections of the primary and of every replica in parallel
+     * and waits for them at most {@code connections.warm-up-timeout} ms.
+     *
+     * @return the number of connections opened
+     */
+    public int warmUp() {
+        List<Callable<Boolean>> tasks = new ArrayList<>(primary.warmUpTasks());
+        replicas.forEach(replica -> tasks.addAll(replica.warmUpTasks()));
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), warmUpThreads), runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int opened = 0;
         try {
-            currentConnection = connections.take();
+            for (Future<Boolean> result : executor.invokeAll(tasks, warmUpTimeout, TimeUnit.MILLISECONDS)) {
+                if (!result.isCancelled() && result.get()) {
+                    opened++;
+                }
+            }
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Connection pool warm-up failed ", e);
+        } finally {
+            executor.shutdownNow();
         }
-        return currentConnection;
+        return opened;
     }
 
-    public void returnToPool(Connection connection) {
-        try {
-            connections.put(connection);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    public void shutdown() {
+        housekeeper.shutdownNow();
+        primary.shutdown();
+        replicas.forEach(DataSourcePool::shutdown);
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    private DataSourcePool chooseReplica() {
+        if (replicas.isEmpty()) {
+            return null;
         }
+        if (leastBusyBalancing) {
+            DataSourcePool leastBusy = null;
+            for (DataSourcePool replica : replicas) {
+                if (replica.isHealthy() && (leastBusy == null || replica.getActiveCount() < leastBusy.getActiveCount())) {
+                    leastBusy = replica;
+                }
+            }
+            return leastBusy;
+        }
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            DataSourcePool replica = replicas.get((start + i) % replicas.size());
+            if (replica.isHealthy()) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private void houseKeep() {
+        primary.houseKeep();
+        replicas.forEach(DataSourcePool::houseKeep);
+    }
+
+    private void detectLeaks() {
+        primary.detectLeaks();
+        replicas.forEach(DataSourcePool::detectLeaks);
     }
 }
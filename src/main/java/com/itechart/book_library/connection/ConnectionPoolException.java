@@ -0,0 +1,14 @@
+package com.itechart.book_library.connection;
+
+public class ConnectionPoolException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConnectionPoolException(String message) {
+        super(message);
+    }
+
+    public ConnectionPoolException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
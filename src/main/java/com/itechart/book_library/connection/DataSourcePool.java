@@ -0,0 +1,348 @@
+package com.itechart.book_library.connection;
+
+import com.itechart.book_library.metrics.Histogram;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import lombok.extern.log4j.Log4j;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of connections to a single database, either the primary or one of the read replicas.
+ */
+@Log4j
+class DataSourcePool {
+
+    private static final long WAIT_SLICE_MILLIS = 100;
+
+    private final ConcurrentBag bag = new ConcurrentBag();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final String name;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final LongAdder statementCacheHits;
+    private final LongAdder statementCacheMisses;
+    private final Histogram checkoutWait;
+    private final LongAdder checkoutTimeouts;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long acquireTimeout;
+    private final int validationTimeout;
+    private final long validationInterval;
+    private final long idleTimeout;
+    private final int statementCacheSize;
+    private final String prepareThreshold;
+    private final long leakDetectionThreshold;
+    private final long recoveryBackoff;
+    private volatile long lastConnectFailure;
+    private volatile boolean shutdown;
+
+    DataSourcePool(String name, String url, Properties properties, LongAdder statementCacheHits, LongAdder statementCacheMisses) {
+        this.name = name;
+        this.url = url;
+        this.statementCacheHits = statementCacheHits;
+        this.statementCacheMisses = statementCacheMisses;
+        username = properties.getProperty("username");
+        password = properties.getProperty("password");
+        minConnections = Integer.parseInt(properties.getProperty("connections.min", "2"));
+        maxConnections = Math.max(minConnections, Integer.parseInt(properties.getProperty("connections.max", "10")));
+        acquireTimeout = Long.parseLong(properties.getProperty("connections.acquire-timeout", "5000"));
+        validationTimeout = Integer.parseInt(properties.getProperty("connections.validation-timeout", "2"));
+        validationInterval = Long.parseLong(properties.getProperty("connections.validation-interval", "30000"));
+        idleTimeout = Long.parseLong(properties.getProperty("connections.idle-timeout", "600000"));
+        statementCacheSize = Integer.parseInt(properties.getProperty("statements.cache-size", "32"));
+        prepareThreshold = properties.getProperty("statements.prepare-threshold", "1");
+        leakDetectionThreshold = Long.parseLong(properties.getProperty("connections.leak-detection-threshold", "0"));
+        recoveryBackoff = Long.parseLong(properties.getProperty("connections.recovery-backoff", "10000"));
+
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        String pool = "pool=\"" + name + "\"";
+        checkoutWait = metrics.histogram("book_library_pool_checkout_wait_seconds",
+                "Time spent waiting for a pooled connection", pool);
+        checkoutTimeouts = metrics.counter("book_library_pool_checkout_timeouts_total",
+                "Checkouts that failed because no connection became available in time", pool);
+        String connectionsHelp = "Pooled connections by state";
+        metrics.gauge("book_library_pool_connections", connectionsHelp, pool + ",state=\"active\"", this::getActiveCount);
+        metrics.gauge("book_library_pool_connections", connectionsHelp, pool + ",state=\"idle\"",
+                () -> bag.count(PooledConnection.STATE_NOT_IN_USE));
+        metrics.gauge("book_library_pool_connections", connectionsHelp, pool + ",state=\"total\"", totalConnections::get);
+        metrics.gauge("book_library_pool_waiting_threads", "Threads waiting for a pooled connection", pool,
+                bag::getWaitingThreadCount);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getActiveCount() {
+        return bag.count(PooledConnection.STATE_IN_USE);
+    }
+
+    /**
+     * A database is considered unhealthy while the last attempt to open a connection to it failed. Housekeeping
+     * probes an unhealthy database once the recovery backoff has passed, so it does not stay unhealthy while
+     * the pool has no reason to open connections.
+     */
+    boolean isHealthy() {
+        return lastConnectFailure == 0;
+    }
+
+    /**
+     * Borrows a connection, opening a new one while the pool is below its maximum size.
+     *
+     * @throws ConnectionPoolException if no connection becomes available within the acquire timeout
+     */
+    ConnectionLease getConnection() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+        SQLException lastFailure = null;
+        try {
+            while (true) {
+                PooledConnection pooled = bag.borrow(0, TimeUnit.NANOSECONDS);
+                if (pooled == null) {
+                    try {
+                        pooled = tryCreate(PooledConnection.STATE_IN_USE);
+                    } catch (SQLException e) {
+                        if (totalConnections.get() == 0) {
+                            throw new ConnectionPoolException("Database " + name + " is unreachable", e);
+                        }
+                        lastFailure = e;
+                    }
+                }
+                if (pooled == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        checkoutWait.record(System.nanoTime() - start);
+                        checkoutTimeouts.increment();
+                        throw new ConnectionPoolException("Timed out after " + acquireTimeout + " ms waiting for a " + name + " connection ("
+                                + bag.count(PooledConnection.STATE_IN_USE) + " of " + maxConnections + " in use)", lastFailure);
+                    }
+                    long slice = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MILLIS));
+                    pooled = bag.borrow(slice, TimeUnit.NANOSECONDS);
+                    if (pooled == null) {
+                        continue;
+                    }
+                }
+                if (isAlive(pooled)) {
+                    checkoutWait.record(System.nanoTime() - start);
+                    return pooled.lease(leakDetectionThreshold > 0);
+                }
+                if (bag.remove(pooled)) {
+                    discard(pooled);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionPoolException("Interrupted while waiting for a connection", e);
+        }
+    }
+
+    void returnToPool(PooledConnection pooled, boolean reusable) {
+        try {
+            if (!reusable || shutdown || pooled.getPhysicalConnection().isClosed()) {
+                if (bag.remove(pooled)) {
+                    discard(pooled);
+                }
+                return;
+            }
+        } catch (SQLException e) {
+            if (bag.remove(pooled)) {
+                discard(pooled);
+            }
+            return;
+        }
+        pooled.touch();
+        bag.requite(pooled);
+    }
+
+    private PooledConnection tryCreate(int initialState) throws SQLException {
+        int total;
+        do {
+            total = totalConnections.get();
+            if (total >= maxConnections) {
+                return null;
+            }
+        } while (!totalConnections.compareAndSet(total, total + 1));
+
+        try {
+            Connection connection = openConnection();
+            StatementCache statementCache = new StatementCache(connection, statementCacheSize, statementCacheHits, statementCacheMisses);
+            PooledConnection pooled;
+            try {
+                pooled = new PooledConnection(this, connection, statementCache, initialState);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            bag.add(pooled);
+            return pooled;
+        } catch (SQLException e) {
+            totalConnections.decrementAndGet();
+            log.error("Cannot open a connection to " + name + " database ", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a physical connection, recording whether the database could be reached.
+     */
+    private Connection openConnection() throws SQLException {
+        Properties connectionProperties = new Properties();
+        connectionProperties.setProperty("user", username);
+        connectionProperties.setProperty("password", password);
+        // the driver switches a statement to a named server-side prepared statement after this many executions;
+        // statements kept alive by the cache reach it once and are never parsed again
+        connectionProperties.setProperty("prepareThreshold", prepareThreshold);
+        try {
+            Connection connection = DriverManager.getConnection(url, connectionProperties);
+            lastConnectFailure = 0;
+            return connection;
+        } catch (SQLException e) {
+            lastConnectFailure = System.currentTimeMillis();
+            throw e;
+        }
+    }
+
+    private boolean isAlive(PooledConnection pooled) {
+        if (pooled.getUnvalidatedMillis() < validationInterval) {
+            return true;
+        }
+        try {
+            boolean valid = pooled.getPhysicalConnection().isValid(validationTimeout);
+            if (valid) {
+                pooled.markValidated();
+            }
+            return valid;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.close();
+        } catch (SQLException e) {
+            log.debug("Cannot close a discarded connection ", e);
+        }
+    }
+
+    /**
+     * Logs every lease held longer than the leak detection threshold together with the stack trace
+     * of the code that acquired it.
+     */
+    void detectLeaks() {
+        if (leakDetectionThreshold <= 0) {
+            return;
+        }
+        for (PooledConnection pooled : bag.values(PooledConnection.STATE_IN_USE)) {
+            LeaseHandler lease = pooled.getCurrentLease();
+            if (lease != null && !lease.isClosed() && lease.getHeldMillis() > leakDetectionThreshold
+                    && lease.markLeakReported()) {
+                log.warn("Possible connection leak: a " + name + " connection has been held for "
+                        + lease.getHeldMillis() + " ms", lease.getAcquisitionTrace());
+            }
+        }
+    }
+
+    long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    void houseKeep() {
+        if (shutdown) {
+            return;
+        }
+        try {
+            for (PooledConnection pooled : bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+                boolean expired = pooled.getIdleMillis() > idleTimeout && totalConnections.get() > minConnections;
+                boolean stale = pooled.getUnvalidatedMillis() > validationInterval;
+                if ((expired || stale) && bag.reserve(pooled)) {
+                    if (expired || !isAlive(pooled)) {
+                        bag.remove(pooled);
+                        discard(pooled);
+                    } else {
+                        bag.unreserve(pooled);
+                    }
+                }
+            }
+            fillToMinimum();
+            probeRecovery();
+        } catch (RuntimeException e) {
+            log.error("Housekeeping of " + name + " connection pool failed ", e);
+        }
+    }
+
+    /**
+     * Opens and closes a connection to an unhealthy database once the recovery backoff has passed since the last
+     * failure, marking the database healthy again if it succeeds. The probe connection is not pooled, so it also
+     * works when the pool is at its minimum or maximum size and opens no connections of its own.
+     */
+    private void probeRecovery() {
+        long failedAt = lastConnectFailure;
+        if (failedAt == 0 || System.currentTimeMillis() - failedAt < recoveryBackoff) {
+            return;
+        }
+        try (Connection connection = openConnection()) {
+            if (connection.isValid(validationTimeout)) {
+                log.info("Database " + name + " is reachable again");
+            } else {
+                lastConnectFailure = System.currentTimeMillis();
+            }
+        } catch (SQLException e) {
+            log.warn("Database " + name + " is still unreachable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns one task per connection missing up to the minimum size, so that they can be opened in parallel.
+     * A task yields {@code true} if it opened a connection.
+     */
+    List<Callable<Boolean>> warmUpTasks() {
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = totalConnections.get(); i < minConnections; i++) {
+            tasks.add(() -> {
+                try {
+                    return tryCreate(PooledConnection.STATE_NOT_IN_USE) != null;
+                } catch (SQLException e) {
+                    return false;
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Closes idle connections; connections still borrowed are closed when their leases are.
+     */
+    void shutdown() {
+        shutdown = true;
+        for (PooledConnection pooled : bag.values(PooledConnection.STATE_NOT_IN_USE)) {
+            if (bag.reserve(pooled)) {
+                bag.remove(pooled);
+                discard(pooled);
+            }
+        }
+    }
+
+    void fillToMinimum() {
+        while (totalConnections.get() < minConnections) {
+            try {
+                if (tryCreate(PooledConnection.STATE_NOT_IN_USE) == null) {
+                    return;
+                }
+            } catch (SQLException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.itechart.book_library.connection;
+
+import lombok.extern.log4j.Log4j;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+
+/**
+ * Backs the {@link ConnectionLease} proxy of a single checkout: serves {@code prepareStatement(String)}
+ * from the statement cache, remembers which session settings the borrower changed and
+ * gives the connection back to its pool on {@code close()}.
+ */
+@Log4j
+class LeaseHandler implements InvocationHandler {
+
+    private final PooledConnection pooled;
+    private final ConnectionLease lease;
+    private final long acquiredAt = System.currentTimeMillis();
+    private final Throwable acquisitionTrace;
+    private volatile boolean closed;
+    private volatile boolean leakReported;
+    private boolean isolationChanged;
+    private boolean readOnlyChanged;
+
+    LeaseHandler(PooledConnection pooled, boolean traceAcquisition) {
+        this.pooled = pooled;
+        this.acquisitionTrace = traceAcquisition ? new Throwable("Connection acquired here") : null;
+        this.lease = (ConnectionLease) Proxy.newProxyInstance(ConnectionLease.class.getClassLoader(),
+                new Class<?>[]{ConnectionLease.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "close":
+                close();
+                return null;
+            case "isClosed":
+                return closed || pooled.getPhysicalConnection().isClosed();
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "ConnectionLease[" + pooled.getOwner().getName() + "]";
+            default:
+                break;
+        }
+        if (closed) {
+            throw new SQLException("Connection lease has already been closed");
+        }
+        switch (method.getName()) {
+            case "prepareStatement":
+                if (args.length == 1) {
+                    return pooled.getStatementCache().prepare((String) args[0]);
+                }
+                break;
+            case "setTransactionIsolation":
+                isolationChanged = true;
+                break;
+            case "setReadOnly":
+                readOnlyChanged = true;
+                break;
+            default:
+                break;
+        }
+        try {
+            return method.invoke(pooled.getPhysicalConnection(), args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    ConnectionLease getLease() {
+        return lease;
+    }
+
+    long getHeldMillis() {
+        return System.currentTimeMillis() - acquiredAt;
+    }
+
+    Throwable getAcquisitionTrace() {
+        return acquisitionTrace;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Marks a leak as reported so that a long-held connection is logged once.
+     */
+    boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+        leakReported = true;
+        return true;
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (leakReported) {
+            log.info("Previously reported leaked connection returned after " + getHeldMillis() + " ms");
+        }
+        pooled.getOwner().returnToPool(pooled, resetSession());
+    }
+
+    private boolean resetSession() {
+        try {
+            if (!pooled.getPhysicalConnection().getAutoCommit()) {
+                pooled.getPhysicalConnection().rollback();
+                pooled.getPhysicalConnection().setAutoCommit(true);
+            }
+            if (isolationChanged) {
+                pooled.getPhysicalConnection().setTransactionIsolation(pooled.getDefaultIsolation());
+            }
+            if (readOnlyChanged) {
+                pooled.getPhysicalConnection().setReadOnly(false);
+            }
+            return true;
+        } catch (SQLException e) {
+            log.warn("Cannot reset a returned connection, it will be discarded ", e);
+            return false;
+        }
+    }
+}
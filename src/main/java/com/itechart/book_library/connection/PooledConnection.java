@@ -0,0 +1,94 @@
+package com.itechart.book_library.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PooledConnection {
+
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_REMOVED = -1;
+    static final int STATE_RESERVED = -2;
+
+    private final DataSourcePool owner;
+    private final Connection physicalConnection;
+    private final StatementCache statementCache;
+    private final int defaultIsolation;
+    private final AtomicInteger state;
+    private volatile LeaseHandler currentLease;
+    private volatile long lastAccess;
+    private volatile long lastValidation;
+
+    PooledConnection(DataSourcePool owner, Connection physicalConnection, StatementCache statementCache,
+                     int initialState) throws SQLException {
+        this.owner = owner;
+        this.physicalConnection = physicalConnection;
+        this.statementCache = statementCache;
+        this.defaultIsolation = physicalConnection.getTransactionIsolation();
+        this.state = new AtomicInteger(initialState);
+        this.lastAccess = this.lastValidation = System.currentTimeMillis();
+    }
+
+    /**
+     * Hands the connection out under a new lease; the previous lease, if any, is already closed.
+     */
+    ConnectionLease lease(boolean traceAcquisition) {
+        LeaseHandler handler = new LeaseHandler(this, traceAcquisition);
+        currentLease = handler;
+        return handler.getLease();
+    }
+
+    LeaseHandler getCurrentLease() {
+        return currentLease;
+    }
+
+    DataSourcePool getOwner() {
+        return owner;
+    }
+
+    Connection getPhysicalConnection() {
+        return physicalConnection;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    int getDefaultIsolation() {
+        return defaultIsolation;
+    }
+
+    void close() throws SQLException {
+        statementCache.close();
+        physicalConnection.close();
+    }
+
+    int getState() {
+        return state.get();
+    }
+
+    void setState(int newState) {
+        state.set(newState);
+    }
+
+    boolean compareAndSetState(int expectedState, int newState) {
+        return state.compareAndSet(expectedState, newState);
+    }
+
+    long getIdleMillis() {
+        return System.currentTimeMillis() - lastAccess;
+    }
+
+    long getUnvalidatedMillis() {
+        return System.currentTimeMillis() - lastValidation;
+    }
+
+    void touch() {
+        lastAccess = lastValidation = System.currentTimeMillis();
+    }
+
+    void markValidated() {
+        lastValidation = System.currentTimeMillis();
+    }
+}
@@ -2,10 +2,22 @@ package com.itechart.book_library.dao.api;
 
 import com.itechart.book_library.model.entity.AuthorEntity;
 
-import java.util.Optional;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
 
 public interface AuthorDao extends Dao<AuthorEntity> {
 
-    Optional<AuthorEntity> getByName(String name);
+    /**
+     * Returns the ids of the authors with the given names, creating the missing ones in the transaction
+     * of the connection, in a fixed number of statements.
+     */
+    Map<String, Integer> getOrCreateIds(Collection<String> names, Connection connection) throws SQLException;
+
+    /**
+     * Remembers the ids of authors created in a transaction that has been committed since.
+     */
+    void addCommittedIds(Map<String, Integer> ids);
 
 }
@@ -1,6 +1,7 @@
 package com.itechart.book_library.dao.api;
 
 import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.metrics.MetricsRegistry;
 
 import java.lang.reflect.InvocationTargetException;
 import java.sql.PreparedStatement;
@@ -10,6 +11,7 @@ import java.sql.SQLException;
 public abstract class BaseDao {
 
     protected ConnectionPool connectionPool = ConnectionPool.getInstance();
+    protected MetricsRegistry metrics = MetricsRegistry.INSTANCE;
 
     public static <T extends BaseDao> T getDao(Class<T> clazz) {
         T t = null;
@@ -1,21 +1,91 @@
 package com.itechart.book_library.dao.api;
 
+import com.itechart.book_library.dao.criteria.BookPage;
 import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.PageCursor;
+import com.itechart.book_library.dao.criteria.TotalCount;
+import com.itechart.book_library.model.entity.BookCoverEntity;
 import com.itechart.book_library.model.entity.BookEntity;
+import com.itechart.book_library.model.entity.CoverSize;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 public interface BookDao extends Dao<BookEntity> {
 
-    List<BookEntity> getLimitOffsetBySpecification(BookSpecification specification, int limit, int offset);
+    /**
+     * Returns one page of the matching books and their total in a single statement, a {@link BookPage#failed()}
+     * page if the query fails.
+     */
+    BookPage getLimitOffsetBySpecification(BookSpecification specification, int limit, int offset, TotalCount totalCount);
 
-    int getCountBySpecification(BookSpecification specification);
+    /**
+     * Returns up to {@code limit} books next to the cursor in the id order, newest first,
+     * and the total of the matching books, a {@link BookPage#failed()} page if the query fails.
+     * Only valid when {@link #isRankedByRelevance(BookSpecification)} is false.
+     */
+    BookPage getKeysetBySpecification(BookSpecification specification, PageCursor cursor, int limit, TotalCount totalCount);
 
-    void takeBook(int id, Connection connection) throws SQLException;
+    /**
+     * Tells whether the book exists by a primary key lookup on the primary, without reading the book.
+     */
+    boolean exists(int id);
 
-    void loseBook(int id, Connection connection) throws SQLException;
+    /**
+     * Reads only the fields a search matches on: the title, the description and the names of the authors
+     * and genres, by a primary key lookup on the primary.
+     */
+    Optional<BookEntity> getSearchFields(int id);
 
-    void returnBook(int id, Connection connection) throws SQLException;
+    Optional<BookCoverEntity> getCoverMetadata(int bookId, CoverSize size);
+
+    /**
+     * Returns the cover in the given size with its content, or the original if that rendition is not
+     * generated yet; empty if the book does not exist or has no cover.
+     */
+    Optional<BookCoverEntity> getCover(int bookId, CoverSize size);
+
+    /**
+     * Stores the renditions of the cover unless the cover has changed since they were made from it.
+     *
+     * @return whether they were stored
+     */
+    boolean updateCoverRenditions(int bookId, String coverMd5, byte[] thumbnail, byte[] medium);
+
+    boolean isRankedByRelevance(BookSpecification specification);
+
+    /**
+     * Whether books are searched through their search documents, {@code search.mode=full-text}. The documents are
+     * only maintained in this mode.
+     */
+    boolean isFullTextSearch();
+
+    /**
+     * @return the total requested by the {@link TotalCount}, {@code -1} if the query fails
+     */
+    int getCountBySpecification(BookSpecification specification, TotalCount totalCount);
+
+    /**
+     * Rebuilds the full-text search document of the book from its current title, description, authors and genres.
+     */
+    void updateSearchDocument(int id, Connection connection) throws SQLException;
+
+    /**
+     * Takes the given number of copies of the book, unless fewer are available.
+     *
+     * @return whether the copies were taken
+     */
+    boolean takeBooks(int id, int amount, Connection connection) throws SQLException;
+
+    /**
+     * Gives back and writes off copies of several books in one statement.
+     *
+     * @param returned copies given back by book id, made available again
+     * @param lost     copies lost or damaged by book id, removed from the total amount
+     */
+    void returnAndLoseBooks(Map<Integer, Integer> returned, Map<Integer, Integer> lost, Connection connection)
+            throws SQLException;
 }
@@ -3,14 +3,16 @@ package com.itechart.book_library.dao.api;
 import com.itechart.book_library.model.entity.ReaderEntity;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.List;
-import java.util.Optional;
 
-public interface ReaderDao extends Dao<ReaderEntity> {
+public interface ReaderDao {
 
     List<ReaderEntity> getAll();
 
-    Optional<ReaderEntity> getByEmail(String email, Connection connection);
-
-    Optional<ReaderEntity> getByEmailInCurrentBook(String email, int bookId, Connection connection);
+    /**
+     * Creates the readers with new emails and renames the others in one statement, and sets the ids of all of them.
+     * The emails must be distinct.
+     */
+    void upsertAll(List<ReaderEntity> readers, Connection connection) throws SQLException;
 }
@@ -2,8 +2,27 @@ package com.itechart.book_library.dao.api;
 
 import com.itechart.book_library.model.entity.RecordEntity;
 
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.List;
 
-public interface RecordDao extends Dao<RecordEntity> {
+public interface RecordDao {
     List<RecordEntity> getRecordsByBookId(int bookId, boolean areRecordsActive);
+
+    /**
+     * Creates the borrow records of a book in one statement, skipping the readers who already hold it.
+     *
+     * @param records records of the book, of distinct readers with ids
+     * @return the number of records created
+     */
+    int createForNonHolders(int bookId, List<RecordEntity> records, Connection connection) throws SQLException;
+
+    /**
+     * Sets the statuses of borrow records in one statement, skipping the records no longer borrowed, e.g. returned
+     * by a concurrent edit.
+     *
+     * @param records records with their id and new status
+     * @return the records changed, with their id, book id and new status
+     */
+    List<RecordEntity> updateBorrowedStatuses(List<RecordEntity> records, Connection connection) throws SQLException;
 }
@@ -0,0 +1,21 @@
+package com.itechart.book_library.dao.api;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the rows of a streamed query one at a time, so the rows never pile up in memory.
+ */
+public interface RowHandler {
+
+    /**
+     * Called once before the first row.
+     */
+    void start(List<String> columns) throws IOException;
+
+    /**
+     * @param values the column values: {@code String}, {@code Number}, {@code Boolean}, {@code List<String>}
+     *               for arrays, the ISO text of dates or {@code null}
+     */
+    void row(Object[] values) throws IOException;
+}
@@ -0,0 +1,26 @@
+package com.itechart.book_library.dao.criteria;
+
+import com.itechart.book_library.model.entity.BookEntity;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of the books matching a {@link BookSpecification} together with the total requested
+ * by its {@link TotalCount}, zero for {@link TotalCount.Kind#NONE}. A page that could not be read
+ * is empty and {@link #isFailed() failed}, so it is shown but never cached.
+ */
+@Builder
+@Getter
+public class BookPage {
+
+    private List<BookEntity> books;
+    private int totalBookAmount;
+    private boolean failed;
+
+    public static BookPage failed() {
+        return BookPage.builder().books(new ArrayList<>()).failed(true).build();
+    }
+}
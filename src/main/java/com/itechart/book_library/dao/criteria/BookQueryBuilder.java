@@ -0,0 +1,173 @@
+package com.itechart.book_library.dao.criteria;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the regex search queries for a {@link BookSpecification}. Blank parameters produce no predicate,
+ * and authors and genres are matched with {@code EXISTS} semi-joins, so the unfiltered main page becomes
+ * a plain {@code ORDER BY id DESC LIMIT} over the book table. Pages are addressed either by offset
+ * or by a {@link PageCursor}, which seeks on the primary key index instead of skipping rows.
+ */
+public class BookQueryBuilder {
+
+    private static final String PAGE_QUERY = """
+            with page as (
+                select book.id
+                from book%s
+                order by book.id %s
+                limit ?%s
+            )
+            %s""";
+    /**
+     * Columns of a book as read by the DAO, everything but the cover, which is represented by its version.
+     */
+    public static final String BOOK_COLUMNS = "book.id, book.title, book.publisher, book.publish_date, book.page_count, "
+            + "book.isbn, book.description, coalesce(book.cover_sha256, book.cover_md5) as cover_version, "
+            + "book.available, book.total_amount";
+    /**
+     * Columns of the authors and genres joined onto the books.
+     */
+    public static final String AUTHOR_AND_GENRE_COLUMNS =
+            "author.id as author_id, author.name as author_name, genre.id as genre_id, genre.name as genre_name";
+    private static final String JOINED_PAGE_SELECT = """
+            select %s, %s, %s as total
+            from page
+                     join book on book.id = page.id
+                     left join author_book on author_book.book_id = book.id
+                     left join author on author_book.author_id = author.id
+                     left join genre_book on genre_book.book_id = book.id
+                     left join genre on genre_book.genre_id = genre.id
+            order by %s""";
+    private static final String SCALAR_PAGE_SELECT = """
+            select %s, %s as total
+            from page
+                     join book on book.id = page.id
+            order by %s""";
+    private static final String COUNT_QUERY = "select %s";
+    private static final String AUTHOR_PREDICATE = """
+            exists (select 1
+                    from author_book
+                             join author on author.id = author_book.author_id
+                    where author_book.book_id = book.id
+                      and author.name ~* ?)""";
+    private static final String GENRE_PREDICATE = """
+            exists (select 1
+                    from genre_book
+                             join genre on genre.id = genre_book.genre_id
+                    where genre_book.book_id = book.id
+                      and genre.name ~* ?)""";
+
+    private final List<String> predicates = new ArrayList<>();
+    private final List<String> parameters = new ArrayList<>();
+    private final boolean joinAuthorsAndGenres;
+
+    /**
+     * @param joinAuthorsAndGenres whether page queries join the authors and genres onto the books, one row
+     *                             per author and genre pair, or return one row per book
+     */
+    public BookQueryBuilder(BookSpecification specification, boolean joinAuthorsAndGenres) {
+        this.joinAuthorsAndGenres = joinAuthorsAndGenres;
+        addPredicate("book.title ~* ?", specification.getTitle());
+        addPredicate(AUTHOR_PREDICATE, toAlternatives(specification.getAuthors()));
+        addPredicate(GENRE_PREDICATE, toAlternatives(specification.getGenres()));
+        addPredicate("book.description ~* ?", specification.getDescription());
+    }
+
+    /**
+     * Returns the query of one page of books, newest first, and the total
+     * in the last column of every row. Its parameters are the search parameters, the limit, the offset
+     * and the {@link #setTotalParameters total parameters}.
+     */
+    public String buildPageQuery(TotalCount totalCount) {
+        return String.format(PAGE_QUERY, buildWhereClause(predicates), "desc", " offset ?", buildPageSelect(totalCount));
+    }
+
+    /**
+     * Returns the query of the page of books next to the book the cursor points at, newest first, and the total
+     * in the last column of every row. Its parameters are the search parameters, the cursor book id, the limit
+     * and the {@link #setTotalParameters total parameters}.
+     */
+    public String buildKeysetPageQuery(PageCursor.Direction direction, TotalCount totalCount) {
+        List<String> keysetPredicates = new ArrayList<>(predicates);
+        if (direction == PageCursor.Direction.NEXT) {
+            keysetPredicates.add("book.id < ?");
+            return String.format(PAGE_QUERY, buildWhereClause(keysetPredicates), "desc", "", buildPageSelect(totalCount));
+        }
+        keysetPredicates.add("book.id > ?");
+        return String.format(PAGE_QUERY, buildWhereClause(keysetPredicates), "asc", "", buildPageSelect(totalCount));
+    }
+
+    /**
+     * Returns the query of the total alone; its parameters are the {@link #setTotalParameters total parameters}.
+     */
+    public String buildCountQuery(TotalCount totalCount) {
+        return String.format(COUNT_QUERY, buildTotal(totalCount));
+    }
+
+    /**
+     * Binds the search parameters of the built query starting at the given index.
+     *
+     * @return the index of the next parameter
+     */
+    public int setParameters(PreparedStatement statement, int firstIndex) throws SQLException {
+        int i = firstIndex;
+        for (String parameter : parameters) {
+            statement.setString(i++, parameter);
+        }
+        return i;
+    }
+
+    /**
+     * Binds the parameters of the total of the built query, if it has any, starting at the given index.
+     */
+    public void setTotalParameters(PreparedStatement statement, int firstIndex, TotalCount totalCount) throws SQLException {
+        if (totalCount.hasParameters()) {
+            setParameters(statement, firstIndex);
+        }
+    }
+
+    /**
+     * Returns the select of the books whose ids a preceding {@code page} CTE lists, in the given order,
+     * with the total in the last column.
+     */
+    public static String selectPage(boolean joinAuthorsAndGenres, String total, String orderBy) {
+        if (joinAuthorsAndGenres) {
+            return String.format(JOINED_PAGE_SELECT, BOOK_COLUMNS, AUTHOR_AND_GENRE_COLUMNS, total, orderBy);
+        }
+        return String.format(SCALAR_PAGE_SELECT, BOOK_COLUMNS, total, orderBy);
+    }
+
+    private String buildPageSelect(TotalCount totalCount) {
+        return selectPage(joinAuthorsAndGenres, buildTotal(totalCount), "book.id desc");
+    }
+
+    private String buildTotal(TotalCount totalCount) {
+        return totalCount.toSql("book" + buildWhereClause(predicates));
+    }
+
+    private void addPredicate(String predicate, String value) {
+        if (value != null && !value.isBlank()) {
+            predicates.add(predicate);
+            parameters.add(value.strip());
+        }
+    }
+
+    private static String buildWhereClause(List<String> predicates) {
+        return predicates.isEmpty() ? "" : "\nwhere " + String.join("\n  and ", predicates);
+    }
+
+    static String toAlternatives(String value) {
+        if (value == null) {
+            return null;
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::strip)
+                .filter(alternative -> !alternative.isEmpty())
+                .collect(Collectors.joining("|"));
+    }
+}
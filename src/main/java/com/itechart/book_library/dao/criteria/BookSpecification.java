@@ -1,35 +1,167 @@
 package com.itechart.book_library.dao.criteria;
 
+import com.itechart.book_library.model.entity.AuthorEntity;
+import com.itechart.book_library.model.entity.BookEntity;
+import com.itechart.book_library.model.entity.GenreEntity;
 import lombok.Builder;
 import lombok.Getter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
 @Builder
 @Getter
 public class BookSpecification {
 
+    private static final String TS_QUERY_WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
     private String title;
     private String authors;
     private String genres;
     private String description;
 
-    public BookSpecification convertSpecificationParametersToRegex() {
-        String defaultValue = ".*%s.*";
-        if (title == null) {
-            title = "";
+    /**
+     * Tells whether no parameter has a value, i.e. the specification matches every book.
+     */
+    public boolean isEmpty() {
+        return isBlank(title) && isBlank(authors) && isBlank(genres) && isBlank(description);
+    }
+
+    /**
+     * Returns a key that is equal for specifications matching the same books: parameters are trimmed
+     * and lowercased, and the alternatives of authors and genres are sorted.
+     */
+    public String toNormalizedKey() {
+        return String.join("\u0000", normalize(title), normalizeAlternatives(authors),
+                normalizeAlternatives(genres), normalize(description));
+    }
+
+    /**
+     * Builds a {@code to_tsquery} expression matching the words of each parameter as prefixes
+     * in the part of the book search document they belong to: title (A), authors (B), genres (C)
+     * and description (D).
+     *
+     * @return the expression or {@code null} if no parameter contains a word
+     */
+    public String toTsQuery() {
+        List<String> parts = new ArrayList<>();
+        addTsQueryPart(parts, title, 'A', false);
+        addTsQueryPart(parts, authors, 'B', true);
+        addTsQueryPart(parts, genres, 'C', true);
+        addTsQueryPart(parts, description, 'D', false);
+        return parts.isEmpty() ? null : String.join(" & ", parts);
+    }
+
+    /**
+     * Tells whether the book may match the specification, as the regex search or, with {@code fullText}, the
+     * full-text search would decide. Where Java may disagree with PostgreSQL, e.g. on a regex Java cannot compile,
+     * it answers yes, so it can tell which cached search results a change of the book may affect.
+     */
+    public boolean mightMatch(BookEntity book, boolean fullText) {
+        List<String> authorNames = book.getAuthorEntities() == null ? List.of()
+                : book.getAuthorEntities().stream().map(AuthorEntity::getName).collect(Collectors.toList());
+        List<String> genreNames = book.getGenreEntities() == null ? List.of()
+                : book.getGenreEntities().stream().map(GenreEntity::getName).collect(Collectors.toList());
+        if (fullText) {
+            return mightMatchWords(title, false, Collections.singletonList(book.getTitle()))
+                    && mightMatchWords(authors, true, authorNames)
+                    && mightMatchWords(genres, true, genreNames)
+                    && mightMatchWords(description, false, Collections.singletonList(book.getDescription()));
+        }
+        return mightMatchRegex(title, Collections.singletonList(book.getTitle()))
+                && mightMatchRegex(BookQueryBuilder.toAlternatives(authors), authorNames)
+                && mightMatchRegex(BookQueryBuilder.toAlternatives(genres), genreNames)
+                && mightMatchRegex(description, Collections.singletonList(book.getDescription()));
+    }
+
+    private static boolean mightMatchRegex(String regex, List<String> values) {
+        if (isBlank(regex)) {
+            return true;
+        }
+        try {
+            Pattern pattern = Pattern.compile(regex.strip(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+            return values.stream().filter(Objects::nonNull).anyMatch(value -> pattern.matcher(value).find());
+        } catch (PatternSyntaxException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Mirrors {@link #toTsQuery()}: some alternative has all its words as prefixes of the words of the values.
+     */
+    private static boolean mightMatchWords(String value, boolean commaSeparated, List<String> values) {
+        if (isBlank(value)) {
+            return true;
         }
-        if (authors == null) {
-            authors = "";
+        List<String> documentWords = values.stream()
+                .filter(Objects::nonNull)
+                .flatMap(field -> Arrays.stream(field.toLowerCase().split(TS_QUERY_WORD_SEPARATOR)))
+                .filter(word -> !word.isEmpty())
+                .collect(Collectors.toList());
+        boolean hasWords = false;
+        for (String alternative : commaSeparated ? value.split(",") : new String[]{value}) {
+            List<String> words = Arrays.stream(alternative.toLowerCase().split(TS_QUERY_WORD_SEPARATOR))
+                    .filter(word -> !word.isEmpty())
+                    .collect(Collectors.toList());
+            if (words.isEmpty()) {
+                continue;
+            }
+            hasWords = true;
+            if (words.stream().allMatch(word -> documentWords.stream().anyMatch(documentWord -> documentWord.startsWith(word)))) {
+                return true;
+            }
         }
-        if (genres == null) {
-            genres = "";
+        // a parameter without words adds no condition to the query
+        return !hasWords;
+    }
+
+    private static void addTsQueryPart(List<String> parts, String value, char weight, boolean commaSeparated) {
+        if (isBlank(value)) {
+            return;
         }
-        if (description == null) {
-            description = "";
+        List<String> alternatives = new ArrayList<>();
+        for (String alternative : commaSeparated ? value.split(",") : new String[]{value}) {
+            String words = Arrays.stream(alternative.toLowerCase().split(TS_QUERY_WORD_SEPARATOR))
+                    .filter(word -> !word.isEmpty())
+                    .map(word -> word + ":*" + weight)
+                    .collect(Collectors.joining(" & "));
+            if (!words.isEmpty()) {
+                alternatives.add("(" + words + ")");
+            }
         }
-        this.title = String.format(defaultValue, this.title);
-        this.authors = String.format(defaultValue, String.join("|", this.authors.split(" *, *")));
-        this.genres = String.format(defaultValue, String.join("|", this.genres.split(" *, *")));
-        this.description = String.format(defaultValue, this.description);
-        return this;
+        if (!alternatives.isEmpty()) {
+            parts.add("(" + String.join(" | ", alternatives) + ")");
+        }
+    }
+
+    private static String normalize(String value) {
+        if (isBlank(value)) {
+            return "";
+        }
+        // the search is case-insensitive, but a regex escape like \S changes its meaning with case
+        String stripped = value.strip();
+        return stripped.indexOf('\\') >= 0 ? stripped : stripped.toLowerCase();
+    }
+
+    private static String normalizeAlternatives(String value) {
+        if (isBlank(value)) {
+            return "";
+        }
+        return Arrays.stream(value.split(","))
+                .map(BookSpecification::normalize)
+                .filter(alternative -> !alternative.isEmpty())
+                .sorted()
+                .distinct()
+                .collect(Collectors.joining(","));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
     }
 }
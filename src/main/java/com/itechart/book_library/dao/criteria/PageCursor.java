@@ -0,0 +1,62 @@
+package com.itechart.book_library.dao.criteria;
+
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Position of a keyset page in the book list ordered by {@code book.id} descending: the books after
+ * (older than) or before (newer than) the given id. Travels through URLs as an opaque token.
+ */
+@Getter
+public class PageCursor {
+
+    public enum Direction {
+        NEXT, PREVIOUS
+    }
+
+    private final Direction direction;
+    private final int bookId;
+
+    private PageCursor(Direction direction, int bookId) {
+        this.direction = direction;
+        this.bookId = bookId;
+    }
+
+    public static PageCursor next(int bookId) {
+        return new PageCursor(Direction.NEXT, bookId);
+    }
+
+    public static PageCursor previous(int bookId) {
+        return new PageCursor(Direction.PREVIOUS, bookId);
+    }
+
+    public String encode() {
+        String value = (direction == Direction.NEXT ? "n" : "p") + bookId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the cursor or an empty optional if the token is missing, malformed or not one {@link #encode()}
+     * returns, e.g. edited by hand
+     */
+    public static Optional<PageCursor> decode(String token) {
+        if (token == null || token.isBlank()) {
+            return Optional.empty();
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int bookId = Integer.parseInt(value.substring(1));
+            Optional<PageCursor> cursor = switch (value.charAt(0)) {
+                case 'n' -> Optional.of(next(bookId));
+                case 'p' -> Optional.of(previous(bookId));
+                default -> Optional.empty();
+            };
+            return bookId < 0 ? Optional.empty() : cursor.filter(decoded -> decoded.encode().equals(token));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.itechart.book_library.dao.criteria;
+
+import lombok.Getter;
+
+/**
+ * How a page query computes the number of all matching books that it returns along with the page.
+ */
+@Getter
+public class TotalCount {
+
+    public enum Kind {
+        /**
+         * The total is already known, the query returns null.
+         */
+        NONE,
+        EXACT,
+        /**
+         * The planner's estimate of the book table size from the catalog; only meaningful without search criteria.
+         */
+        ESTIMATED,
+        /**
+         * Counts at most {@code cap + 1} books, so a result above the cap only says there are more.
+         */
+        CAPPED
+    }
+
+    private static final TotalCount NONE = new TotalCount(Kind.NONE, 0);
+    private static final TotalCount EXACT = new TotalCount(Kind.EXACT, 0);
+    private static final TotalCount ESTIMATED = new TotalCount(Kind.ESTIMATED, 0);
+
+    private final Kind kind;
+    private final int cap;
+
+    private TotalCount(Kind kind, int cap) {
+        this.kind = kind;
+        this.cap = cap;
+    }
+
+    public static TotalCount none() {
+        return NONE;
+    }
+
+    public static TotalCount exact() {
+        return EXACT;
+    }
+
+    public static TotalCount estimated() {
+        return ESTIMATED;
+    }
+
+    public static TotalCount capped(int cap) {
+        return new TotalCount(Kind.CAPPED, cap);
+    }
+
+    /**
+     * Returns the SQL expression of the total over the given {@code from} clause, e.g. {@code "book where ..."}.
+     */
+    public String toSql(String from) {
+        return switch (kind) {
+            case NONE -> "null::bigint";
+            case EXACT -> "(select count(*) from " + from + ")";
+            // a table that was never analyzed has no estimate yet, so it is counted
+            case ESTIMATED -> """
+                    (select case when reltuples > 0 then reltuples::bigint else (select count(*) from book) end
+                     from pg_class
+                     where oid = 'book'::regclass)""";
+            case CAPPED -> "(select count(*) from (select 1 from " + from + " limit " + (cap + 1) + ") capped)";
+        };
+    }
+
+    /**
+     * Tells whether {@link #toSql(String)} keeps the parameters of the {@code from} clause.
+     */
+    public boolean hasParameters() {
+        return kind == Kind.EXACT || kind == Kind.CAPPED;
+    }
+}
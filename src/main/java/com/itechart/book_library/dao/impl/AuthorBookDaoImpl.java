@@ -5,33 +5,39 @@ import com.itechart.book_library.dao.api.BaseDao;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 
 public class AuthorBookDaoImpl extends BaseDao {
 
-    private static final String INSERT_AUTHOR_BOOK_QUERY = "INSERT INTO author_book (author_id, book_id) VALUES (?,?)";
-    private static final String DELETE_AUTHOR_BOOK_QUERY = """
-            DELETE
-            from author_book
-            where book_id in (
-                select book_id
-                from author_book
-                         join author on author.id = author_book.author_id
-                         join book on book.id = author_book.book_id
-                where book_id = ?
-            )""";
+    /**
+     * Deletes the links the book no longer has and inserts the new ones in one statement, keeping the links
+     * that did not change. Both parts see the links as they were before the statement.
+     */
+    private static final String SET_AUTHORS_OF_BOOK_QUERY = """
+            WITH removed AS (
+                DELETE
+                FROM author_book
+                WHERE book_id = ?
+                  AND author_id <> ALL (?::int[])
+            )
+            INSERT
+            INTO author_book (author_id, book_id)
+            SELECT DISTINCT new_author.id, ?
+            FROM unnest(?::int[]) AS new_author(id)
+            WHERE NOT EXISTS(SELECT 1 FROM author_book WHERE book_id = ? AND author_id = new_author.id)""";
 
-    public void setAuthorToBook(int authorId, int bookId, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(INSERT_AUTHOR_BOOK_QUERY)) {
-            statement.setInt(1, authorId);
-            statement.setInt(2, bookId);
-            statement.execute();
-        }
-    }
-
-    public void removeAuthorsFromBook(int bookId, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_AUTHOR_BOOK_QUERY)) {
+    public void setAuthorsOfBook(int bookId, Collection<Integer> authorIds, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(SET_AUTHORS_OF_BOOK_QUERY)) {
+            Object[] ids = authorIds.toArray();
             statement.setInt(1, bookId);
+            statement.setArray(2, connection.createArrayOf("int4", ids));
+            statement.setInt(3, bookId);
+            statement.setArray(4, connection.createArrayOf("int4", ids));
+            statement.setInt(5, bookId);
             statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("AuthorBookDaoImpl.setAuthorsOfBook", start);
         }
     }
 }
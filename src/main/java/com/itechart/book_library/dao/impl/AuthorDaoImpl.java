@@ -1,5 +1,6 @@
 package com.itechart.book_library.dao.impl;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.dao.api.AuthorDao;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.model.entity.AuthorEntity;
@@ -10,7 +11,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Log4j
@@ -18,24 +21,39 @@ public class AuthorDaoImpl extends BaseDao implements AuthorDao {
 
     private static final String INSERT_QUERY = "INSERT INTO author (id, name) VALUES (DEFAULT, ?) RETURNING id";
     private static final String SELECT_BY_ID_QUERY = "SELECT * FROM author WHERE id = ?";
-    private static final String SELECT_BY_NAME_QUERY = "SELECT * FROM author WHERE name = ?";
     private static final StringBuilder TEMPLATE_DELETE_QUERY = new StringBuilder("DELETE FROM author WHERE name IN(?");
     private static StringBuilder DELETE_QUERY = TEMPLATE_DELETE_QUERY;
+    /**
+     * Shared by every instance, as each service gets its own DAO instance.
+     */
+    private static final NameDictionary DICTIONARY = new NameDictionary("author", "AuthorDaoImpl");
+
+    public AuthorDaoImpl() {
+        DICTIONARY.loadIfNeeded(connectionPool);
+    }
 
     @Override
     public AuthorEntity create(AuthorEntity author, Connection connection) throws SQLException {
+        long start = System.nanoTime();
         try (PreparedStatement statement = connection.prepareStatement(INSERT_QUERY)) {
             statement.setString(1, author.getName());
             statement.execute();
             author.setId(getIdAfterInserting(statement));
+        } finally {
+            metrics.recordQuery("AuthorDaoImpl.create", start);
         }
         return author;
     }
 
     @Override
     public Optional<AuthorEntity> getById(int id) {
-        List<AuthorEntity> rsList = getListByKey(SELECT_BY_ID_QUERY, id);
-        return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+        long start = System.nanoTime();
+        try {
+            List<AuthorEntity> rsList = getListByKey(SELECT_BY_ID_QUERY, id);
+            return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+        } finally {
+            metrics.recordQuery("AuthorDaoImpl.getById", start);
+        }
     }
 
     @Override
@@ -51,34 +69,23 @@ public class AuthorDaoImpl extends BaseDao implements AuthorDao {
     }
 
     @Override
-    public Optional<AuthorEntity> getByName(String name) {
-        List<AuthorEntity> rsList = getListByKey(SELECT_BY_NAME_QUERY, name);
-        return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+    public Map<String, Integer> getOrCreateIds(Collection<String> names, Connection connection) throws SQLException {
+        return DICTIONARY.getOrCreateIds(names, connection);
+    }
+
+    @Override
+    public void addCommittedIds(Map<String, Integer> ids) {
+        DICTIONARY.addAll(ids);
     }
 
     private List<AuthorEntity> getListByKey(String query, int id) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
             statement.setInt(1, id);
             return getListFromResultSet(statement.executeQuery());
         } catch (SQLException e) {
             log.error("Cannot get author list by " + id + " key ", e);
             return new ArrayList<>();
-        } finally {
-            connectionPool.returnToPool(connection);
-        }
-    }
-
-    private List<AuthorEntity> getListByKey(String query, String text) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, text);
-            return getListFromResultSet(statement.executeQuery());
-        } catch (SQLException e) {
-            log.error("Cannot get author list by " + text + " key ", e);
-            return new ArrayList<>();
-        } finally {
-            connectionPool.returnToPool(connection);
         }
     }
 
@@ -1,60 +1,77 @@
 package com.itechart.book_library.dao.impl;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.dao.api.BookDao;
+import com.itechart.book_library.dao.criteria.BookPage;
+import com.itechart.book_library.dao.criteria.BookQueryBuilder;
 import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.PageCursor;
+import com.itechart.book_library.dao.criteria.TotalCount;
 import com.itechart.book_library.model.entity.AuthorEntity;
+import com.itechart.book_library.model.entity.BookCoverEntity;
 import com.itechart.book_library.model.entity.BookEntity;
+import com.itechart.book_library.model.entity.CoverSize;
 import com.itechart.book_library.model.entity.GenreEntity;
 import lombok.extern.log4j.Log4j;
 
+import java.io.IOException;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 @Log4j
 public class BookDaoImpl extends BaseDao implements BookDao {
 
     private static final String INSERT_BOOK_QUERY = """
-            INSERT INTO book (id, title, publisher, publish_date, page_count, isbn, description, cover, available, total_amount)
-            VALUES (DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            INSERT INTO book (id, title, publisher, publish_date, page_count, isbn, description, cover, cover_sha256,
+                              available, total_amount)
+            VALUES (DEFAULT, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
             RETURNING id""";
-    private static final String SELECT_LIMIT_OFFSET_WITH_PARAMETERS_QUERY = """
-            with parameters(title_p, authors_p, genres_p, description_p) as (
-                values (?, ?, ?, ?)
-            )
-            select distinct book.*, author.*, genre.*
-            from parameters, book
-                     left join author_book on author_book.book_id = book.id
-                     left join author on author_book.author_id = author.id
-                     left join genre_book on genre_book.book_id = book.id
-                     left join genre on genre_book.genre_id = genre.id
-            WHERE title ~* title_p
-              and author.name ~* authors_p
-              and genre.name ~* genres_p
-              and description ~* description_p
-              and book.id in (select distinct book.id
-                              from parameters, book
-                                       left join author_book on author_book.book_id = book.id
-                                       left join author on author_book.author_id = author.id
-                                       left join genre_book on genre_book.book_id = book.id
-                                       left join genre on genre_book.genre_id = genre.id
-                              WHERE title ~* title_p
-                                and author.name ~* authors_p
-                                and genre.name ~* genres_p
-                                and description ~* description_p
-                              order by book.id desc
-                              limit ? offset ?);""";
     private static final String SELECT_BY_ID_QUERY = """
-            select book.*, author.*, genre.*
+            select %s, %s
             from book
                      left join author_book on author_book.book_id = book.id
                      left join author on author_book.author_id = author.id
                      left join genre_book on genre_book.book_id = book.id
                      left join genre on genre_book.genre_id = genre.id
+            where book.id = ?""".formatted(BookQueryBuilder.BOOK_COLUMNS, BookQueryBuilder.AUTHOR_AND_GENRE_COLUMNS);
+    private static final String EXISTS_QUERY = "SELECT 1 FROM book WHERE id = ?";
+    private static final String SELECT_SEARCH_FIELDS_QUERY = """
+            select book.title, book.description,
+                   array(select author.name
+                         from author_book
+                                  join author on author.id = author_book.author_id
+                         where author_book.book_id = book.id),
+                   array(select genre.name
+                         from genre_book
+                                  join genre on genre.id = genre_book.genre_id
+                         where genre_book.book_id = book.id)
+            from book
             where book.id = ?""";
+    private static final String SELECT_COVER_METADATA_QUERY = """
+            SELECT id, coalesce(cover_sha256, cover_md5), cover_updated_at, length(coalesce(%1$s, cover)), %1$s IS NOT NULL,
+                   cover_sha256
+            FROM book
+            WHERE id = ?
+              AND (cover IS NOT NULL OR cover_sha256 IS NOT NULL)""";
+    private static final String SELECT_COVER_QUERY = """
+            SELECT id, coalesce(cover_sha256, cover_md5), cover_updated_at, length(coalesce(%1$s, cover)), %1$s IS NOT NULL,
+                   cover_sha256, coalesce(%1$s, cover)
+            FROM book
+            WHERE id = ?
+              AND (cover IS NOT NULL OR cover_sha256 IS NOT NULL)""";
+    private static final String UPDATE_COVER_RENDITIONS_QUERY = """
+            UPDATE book
+            SET cover_thumbnail = ?,
+                cover_medium    = ?
+            WHERE id = ?
+              AND cover_md5 = ?""";
     private static final String UPDATE_QUERY = """
             UPDATE book
             SET title        = ?,
@@ -63,29 +80,94 @@ public class BookDaoImpl extends BaseDao implements BookDao {
                 page_count   = ?,
                 isbn         = ?,
                 description  = ?,
-                cover        = COALESCE(?, cover),
+                cover        = CASE WHEN ?::text IS NULL THEN COALESCE(?, cover) END,
+                cover_sha256 = CASE WHEN ? THEN NULL ELSE COALESCE(?, cover_sha256) END,
                 available    = ? - total_amount + available,
                 total_amount = ?
             WHERE id = ?""";
-    private static final String SELECT_BOOK_COUNT_WITH_PARAMETERS = """
-            select count(DISTINCT book.id) from
-            book
-                     left join author_book on author_book.book_id = book.id
-                     left join author on author_book.author_id = author.id
-                     left join genre_book on genre_book.book_id = book.id
-                     left join genre on genre_book.genre_id = genre.id
-            WHERE title ~* ?
-              and author.name ~* ?
-              and genre.name ~* ?
-              and description ~* ?;""";
-    private static final String UPDATE_TAKE_BOOK_QUERY = "UPDATE book SET available = available-1 WHERE id = ?";
-    private static final String UPDATE_LOSE_BOOK_QUERY = "UPDATE book SET total_amount = total_amount-1 WHERE id = ?";
-    private static final String UPDATE_RETURN_BOOK_QUERY = "UPDATE book SET available = available+1 WHERE id = ?";
-    private static final StringBuilder TEMPLATE_DELETE_QUERY = new StringBuilder("DELETE FROM book WHERE id IN(?");
-    private static StringBuilder DELETE_QUERY = TEMPLATE_DELETE_QUERY;
+    private static final String SELECT_LIMIT_OFFSET_FULL_TEXT_QUERY = """
+            with page as (
+                select book_search.book_id as id, ts_rank(book_search.document, query) as rank
+                from book_search, to_tsquery('simple', ?) query
+                where book_search.document @@ query
+                order by rank desc, book_search.book_id desc
+                limit ? offset ?
+            )
+            %s""";
+    private static final String SELECT_AUTHORS_BY_BOOK_IDS_QUERY = """
+            select author_book.book_id, author.id, author.name
+            from author_book
+                     join author on author.id = author_book.author_id
+            where author_book.book_id = ANY(?)
+            order by author.id""";
+    private static final String SELECT_GENRES_BY_BOOK_IDS_QUERY = """
+            select genre_book.book_id, genre.id, genre.name
+            from genre_book
+                     join genre on genre.id = genre_book.genre_id
+            where genre_book.book_id = ANY(?)
+            order by genre.id""";
+    private static final String FULL_TEXT_MATCHES = "book_search where document @@ to_tsquery('simple', ?)";
+    /**
+     * Rebuilds the search documents of the books matching the condition filled in.
+     */
+    static final String UPSERT_SEARCH_DOCUMENTS_QUERY = """
+            INSERT INTO book_search (book_id, document)
+            SELECT book.id,
+                   setweight(to_tsvector('simple', coalesce(book.title, '')), 'A') ||
+                   setweight(to_tsvector('simple', coalesce((select string_agg(author.name, ' ')
+                                                             from author_book
+                                                                      join author on author.id = author_book.author_id
+                                                             where author_book.book_id = book.id), '')), 'B') ||
+                   setweight(to_tsvector('simple', coalesce((select string_agg(genre.name, ' ')
+                                                             from genre_book
+                                                                      join genre on genre.id = genre_book.genre_id
+                                                             where genre_book.book_id = book.id), '')), 'C') ||
+                   setweight(to_tsvector('simple', coalesce(book.description, '')), 'D')
+            FROM book
+            WHERE %s
+            ON CONFLICT (book_id) DO UPDATE SET document = excluded.document""";
+    private static final String UPSERT_SEARCH_DOCUMENT_QUERY = UPSERT_SEARCH_DOCUMENTS_QUERY.formatted("book.id = ?");
+    private static final String UPDATE_TAKE_BOOKS_QUERY = "UPDATE book SET available = available-? WHERE id = ? AND available >= ?";
+    private static final String UPDATE_RETURN_AND_LOSE_BOOKS_QUERY = """
+            UPDATE book
+            SET available    = available + change.returned,
+                total_amount = total_amount - change.lost
+            FROM unnest(?::int[], ?::int[], ?::int[]) AS change(book_id, returned, lost)
+            WHERE book.id = change.book_id""";
+    private static final String DELETE_QUERY = "DELETE FROM book WHERE id = ANY(?)";
+    private static final String FULL_TEXT_SEARCH_MODE = "full-text";
+    private static final String TWO_PHASE_FETCH_MODE = "two-phase";
+    private static final String TOTAL_COLUMN = "total";
+    private static final int FIXED_WIDTH_COLUMNS_BYTES = 20;
+
+    private boolean fullTextSearch;
+    private boolean twoPhaseFetch;
+    private LongAdder fetchedPages;
+    private LongAdder fetchedRows;
+    private LongAdder fetchedPayloadBytes;
+    private LongAdder allocatedBytes;
+
+    public BookDaoImpl() {
+        try {
+            Properties applicationProperties = new Properties();
+            applicationProperties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+            this.fullTextSearch = FULL_TEXT_SEARCH_MODE.equals(applicationProperties.getProperty("search.mode", "regex"));
+            this.twoPhaseFetch = TWO_PHASE_FETCH_MODE.equals(applicationProperties.getProperty("book-list.fetch-mode", "joined"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        String labels = "fetch_mode=\"" + (twoPhaseFetch ? TWO_PHASE_FETCH_MODE : "joined") + "\"";
+        fetchedPages = metrics.counter("book_library_book_pages_fetched_total", "Book list pages read from the database", labels);
+        fetchedRows = metrics.counter("book_library_book_page_rows_total", "Rows read for book list pages", labels);
+        fetchedPayloadBytes = metrics.counter("book_library_book_page_payload_bytes_total",
+                "Approximate size of the column values read for book list pages", labels);
+        allocatedBytes = metrics.counter("book_library_book_page_allocated_bytes_total",
+                "Heap allocated while querying and mapping book list pages", labels);
+    }
 
     @Override
     public BookEntity create(BookEntity book, Connection connection) throws SQLException {
+        long start = System.nanoTime();
         try (PreparedStatement statement = connection.prepareStatement(INSERT_BOOK_QUERY)) {
             int i = 1;
             statement.setString(i++, book.getTitle());
@@ -94,43 +176,162 @@ public class BookDaoImpl extends BaseDao implements BookDao {
             statement.setInt(i++, book.getPageCount());
             statement.setString(i++, book.getISBN());
             statement.setString(i++, book.getDescription());
-            statement.setBinaryStream(i++, book.getCover());
+            // with the length known the driver streams the cover in chunks instead of buffering it whole
+            statement.setBinaryStream(i++, book.getCover(), book.getCoverLength());
+            statement.setString(i++, book.getCoverSha256());
             statement.setInt(i++, book.getAvailableBookAmount());
             statement.setInt(i++, book.getTotalBookAmount());
             statement.execute();
             book.setId(getIdAfterInserting(statement));
+        } finally {
+            metrics.recordQuery("BookDaoImpl.create", start);
         }
         return book;
     }
 
     @Override
-    public List<BookEntity> getLimitOffsetBySpecification(BookSpecification specification, int limit, int offset) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_LIMIT_OFFSET_WITH_PARAMETERS_QUERY)) {
-            int i = 1;
-            statement.setString(i++, specification.getTitle());
-            statement.setString(i++, specification.getAuthors());
-            statement.setString(i++, specification.getGenres());
-            statement.setString(i++, specification.getDescription());
+    public BookPage getLimitOffsetBySpecification(BookSpecification specification, int limit, int offset, TotalCount totalCount) {
+        String tsQuery = fullTextSearch ? specification.toTsQuery() : null;
+        if (tsQuery != null) {
+            return getLimitOffsetByFullText(tsQuery, limit, offset, totalCount);
+        }
+        BookQueryBuilder queryBuilder = new BookQueryBuilder(specification, !twoPhaseFetch);
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(queryBuilder.buildPageQuery(totalCount))) {
+            int i = queryBuilder.setParameters(statement, 1);
             statement.setInt(i++, limit);
             statement.setInt(i++, offset);
-            return getBookListFromResultSet(statement.executeQuery());
+            queryBuilder.setTotalParameters(statement, i, totalCount);
+            return readPage(statement, connection);
+        } catch (SQLException e) {
+            log.error("Cannot get books ", e);
+        } finally {
+            metrics.recordQuery("BookDaoImpl.getLimitOffsetBySpecification", start);
+        }
+        return BookPage.failed();
+    }
+
+    @Override
+    public BookPage getKeysetBySpecification(BookSpecification specification, PageCursor cursor, int limit, TotalCount totalCount) {
+        BookQueryBuilder queryBuilder = new BookQueryBuilder(specification, !twoPhaseFetch);
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     queryBuilder.buildKeysetPageQuery(cursor.getDirection(), totalCount))) {
+            int i = queryBuilder.setParameters(statement, 1);
+            statement.setInt(i++, cursor.getBookId());
+            statement.setInt(i++, limit);
+            queryBuilder.setTotalParameters(statement, i, totalCount);
+            return readPage(statement, connection);
         } catch (SQLException e) {
             log.error("Cannot get books ", e);
         } finally {
-            connectionPool.returnToPool(connection);
+            metrics.recordQuery("BookDaoImpl.getKeysetBySpecification", start);
         }
-        return new ArrayList<>();
+        return BookPage.failed();
+    }
+
+    @Override
+    public boolean isRankedByRelevance(BookSpecification specification) {
+        return fullTextSearch && specification.toTsQuery() != null;
+    }
+
+    @Override
+    public boolean isFullTextSearch() {
+        return fullTextSearch;
     }
 
     @Override
     public Optional<BookEntity> getById(int id) {
-        List<BookEntity> bookList = getListByKey(SELECT_BY_ID_QUERY, id);
-        return bookList.isEmpty() ? Optional.empty() : Optional.of(bookList.get(0));
+        long start = System.nanoTime();
+        try {
+            List<BookEntity> bookList = getListByKey(SELECT_BY_ID_QUERY, id);
+            return bookList.isEmpty() ? Optional.empty() : Optional.of(bookList.get(0));
+        } finally {
+            metrics.recordQuery("BookDaoImpl.getById", start);
+        }
+    }
+
+    @Override
+    public boolean exists(int id) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(EXISTS_QUERY)) {
+            statement.setInt(1, id);
+            return statement.executeQuery().next();
+        } catch (SQLException e) {
+            log.error("Cannot check if book " + id + " exists ", e);
+            return false;
+        } finally {
+            metrics.recordQuery("BookDaoImpl.exists", start);
+        }
+    }
+
+    @Override
+    public Optional<BookEntity> getSearchFields(int id) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_SEARCH_FIELDS_QUERY)) {
+            statement.setInt(1, id);
+            ResultSet resultSet = statement.executeQuery();
+            if (!resultSet.next()) {
+                return Optional.empty();
+            }
+            List<AuthorEntity> authors = new ArrayList<>();
+            for (String name : (String[]) resultSet.getArray(3).getArray()) {
+                authors.add(AuthorEntity.builder().name(name).build());
+            }
+            List<GenreEntity> genres = new ArrayList<>();
+            for (String name : (String[]) resultSet.getArray(4).getArray()) {
+                genres.add(GenreEntity.builder().name(name).build());
+            }
+            return Optional.of(BookEntity.builder()
+                    .id(id)
+                    .title(resultSet.getString(1))
+                    .description(resultSet.getString(2))
+                    .authorEntities(authors)
+                    .genreEntities(genres)
+                    .build());
+        } catch (SQLException e) {
+            log.error("Cannot read search fields of book " + id + " ", e);
+            return Optional.empty();
+        } finally {
+            metrics.recordQuery("BookDaoImpl.getSearchFields", start);
+        }
+    }
+
+    @Override
+    public Optional<BookCoverEntity> getCoverMetadata(int bookId, CoverSize size) {
+        return getCover(bookId, size, false);
+    }
+
+    @Override
+    public Optional<BookCoverEntity> getCover(int bookId, CoverSize size) {
+        return getCover(bookId, size, true);
+    }
+
+    @Override
+    public boolean updateCoverRenditions(int bookId, String coverMd5, byte[] thumbnail, byte[] medium) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(UPDATE_COVER_RENDITIONS_QUERY)) {
+            statement.setBytes(1, thumbnail);
+            statement.setBytes(2, medium);
+            statement.setInt(3, bookId);
+            statement.setString(4, coverMd5);
+            return statement.executeUpdate() == 1;
+        } catch (SQLException e) {
+            log.error("Cannot save cover renditions of book " + bookId + " ", e);
+            return false;
+        } finally {
+            metrics.recordQuery("BookDaoImpl.updateCoverRenditions", start);
+        }
     }
 
     @Override
     public void update(BookEntity book, Connection connection) throws SQLException {
+        long start = System.nanoTime();
         try (PreparedStatement statement = connection.prepareStatement(UPDATE_QUERY)) {
             int i = 1;
             statement.setString(i++, book.getTitle());
@@ -139,29 +340,31 @@ public class BookDaoImpl extends BaseDao implements BookDao {
             statement.setInt(i++, book.getPageCount());
             statement.setString(i++, book.getISBN());
             statement.setString(i++, book.getDescription());
-            statement.setBinaryStream(i++, book.getCover());
+            // a new cover replaces the old one wherever either is stored
+            statement.setString(i++, book.getCoverSha256());
+            statement.setBinaryStream(i++, book.getCover(), book.getCoverLength());
+            statement.setBoolean(i++, book.getCover() != null);
+            statement.setString(i++, book.getCoverSha256());
             statement.setInt(i++, book.getTotalBookAmount());
             statement.setInt(i++, book.getTotalBookAmount());
             statement.setInt(i++, book.getId());
             statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("BookDaoImpl.update", start);
         }
     }
 
     @Override
     public void delete(Integer[] ids) {
-        DELETE_QUERY.append(",?".repeat(Math.max(0, ids.length - 1)));
-        DELETE_QUERY.append(")");
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(String.valueOf(DELETE_QUERY))) {
-            for (int i = 0; i < ids.length; i++) {
-                statement.setInt(i + 1, ids[i]);
-            }
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(DELETE_QUERY)) {
+            statement.setArray(1, connection.createArrayOf("integer", ids));
             statement.executeUpdate();
         } catch (SQLException e) {
             log.error("Cannot delete books ", e);
         } finally {
-            connectionPool.returnToPool(connection);
-            DELETE_QUERY = TEMPLATE_DELETE_QUERY;
+            metrics.recordQuery("BookDaoImpl.delete", start);
         }
     }
 
@@ -170,60 +373,238 @@ public class BookDaoImpl extends BaseDao implements BookDao {
 
     }
 
-    public int getCountBySpecification(BookSpecification specification) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_BOOK_COUNT_WITH_PARAMETERS)) {
-            statement.setString(1, specification.getTitle());
-            statement.setString(2, specification.getAuthors());
-            statement.setString(3, specification.getGenres());
-            statement.setString(4, specification.getDescription());
+    public int getCountBySpecification(BookSpecification specification, TotalCount totalCount) {
+        String tsQuery = fullTextSearch ? specification.toTsQuery() : null;
+        if (tsQuery != null) {
+            return getCountByFullText(tsQuery, totalCount);
+        }
+        BookQueryBuilder queryBuilder = new BookQueryBuilder(specification, !twoPhaseFetch);
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(queryBuilder.buildCountQuery(totalCount))) {
+            queryBuilder.setTotalParameters(statement, 1, totalCount);
             ResultSet resultSet = statement.executeQuery();
             resultSet.next();
             return resultSet.getInt(1);
         } catch (SQLException e) {
             log.error("Cannot get count of books ", e);
-            return 0;
+            return -1;
         } finally {
-            connectionPool.returnToPool(connection);
-            DELETE_QUERY = TEMPLATE_DELETE_QUERY;
+            metrics.recordQuery("BookDaoImpl.getCountBySpecification", start);
         }
     }
 
-    public void takeBook(int id, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_TAKE_BOOK_QUERY)) {
+    public void updateSearchDocument(int id, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT_SEARCH_DOCUMENT_QUERY)) {
             statement.setInt(1, id);
             statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("BookDaoImpl.updateSearchDocument", start);
         }
     }
 
-    public void loseBook(int id, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_LOSE_BOOK_QUERY)) {
-            statement.setInt(1, id);
-            statement.executeUpdate();
+    public boolean takeBooks(int id, int amount, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_TAKE_BOOKS_QUERY)) {
+            statement.setInt(1, amount);
+            statement.setInt(2, id);
+            statement.setInt(3, amount);
+            return statement.executeUpdate() > 0;
+        } finally {
+            metrics.recordQuery("BookDaoImpl.takeBooks", start);
         }
     }
 
-    public void returnBook(int id, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_RETURN_BOOK_QUERY)) {
-            statement.setInt(1, id);
+    public void returnAndLoseBooks(Map<Integer, Integer> returned, Map<Integer, Integer> lost, Connection connection)
+            throws SQLException {
+        Set<Integer> bookIds = new TreeSet<>(returned.keySet());
+        bookIds.addAll(lost.keySet());
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_RETURN_AND_LOSE_BOOKS_QUERY)) {
+            statement.setArray(1, connection.createArrayOf("int4", bookIds.toArray()));
+            statement.setArray(2, connection.createArrayOf("int4",
+                    bookIds.stream().map(id -> returned.getOrDefault(id, 0)).toArray()));
+            statement.setArray(3, connection.createArrayOf("int4",
+                    bookIds.stream().map(id -> lost.getOrDefault(id, 0)).toArray()));
             statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("BookDaoImpl.returnAndLoseBooks", start);
+        }
+    }
+
+    /**
+     * Returns one page of the books matching the query, most relevant first.
+     */
+    private BookPage getLimitOffsetByFullText(String tsQuery, int limit, int offset, TotalCount totalCount) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     String.format(SELECT_LIMIT_OFFSET_FULL_TEXT_QUERY, BookQueryBuilder.selectPage(!twoPhaseFetch,
+                             totalCount.toSql(FULL_TEXT_MATCHES), "page.rank desc, book.id desc")))) {
+            statement.setString(1, tsQuery);
+            statement.setInt(2, limit);
+            statement.setInt(3, offset);
+            if (totalCount.hasParameters()) {
+                statement.setString(4, tsQuery);
+            }
+            return readPage(statement, connection);
+        } catch (SQLException e) {
+            log.error("Cannot get books ", e);
+        } finally {
+            metrics.recordQuery("BookDaoImpl.getLimitOffsetByFullText", start);
+        }
+        return BookPage.failed();
+    }
+
+    private int getCountByFullText(String tsQuery, TotalCount totalCount) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement("select " + totalCount.toSql(FULL_TEXT_MATCHES))) {
+            if (totalCount.hasParameters()) {
+                statement.setString(1, tsQuery);
+            }
+            ResultSet resultSet = statement.executeQuery();
+            resultSet.next();
+            return resultSet.getInt(1);
+        } catch (SQLException e) {
+            log.error("Cannot get count of books ", e);
+            return -1;
+        } finally {
+            metrics.recordQuery("BookDaoImpl.getCountByFullText", start);
+        }
+    }
+
+    /**
+     * Reads the cover into memory, so the connection goes back to the pool before the bytes are sent
+     * to a possibly slow client. The driver materializes a bytea value anyway.
+     */
+    private Optional<BookCoverEntity> getCover(int bookId, CoverSize size, boolean withContent) {
+        String query = String.format(withContent ? SELECT_COVER_QUERY : SELECT_COVER_METADATA_QUERY, size.getColumn());
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setInt(1, bookId);
+            ResultSet resultSet = statement.executeQuery();
+            return resultSet.next() ? Optional.of(getCoverByResultSet(resultSet, size, withContent)) : Optional.empty();
+        } catch (SQLException e) {
+            log.error("Cannot get cover of book " + bookId + " ", e);
+            return Optional.empty();
+        } finally {
+            metrics.recordQuery(withContent ? "BookDaoImpl.getCover" : "BookDaoImpl.getCoverMetadata", start);
         }
     }
 
     private List<BookEntity> getListByKey(String query, int id) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
             statement.setInt(1, id);
             return getBookListFromResultSet(statement.executeQuery());
         } catch (SQLException e) {
             log.error("Cannot get list by " + id + " key ", e);
             return new ArrayList<>();
-        } finally {
-            connectionPool.returnToPool(connection);
         }
     }
 
+    /**
+     * Executes a page query whose rows end with the total and reads the page. A page past the last book
+     * has no rows, so its total is left at zero. In two-phase mode the query returns one row per book
+     * without the cover, and the authors and genres of the page are loaded by two batched queries.
+     */
+    private BookPage readPage(PreparedStatement statement, Connection connection) throws SQLException {
+        long allocatedBefore = metrics.getCurrentThreadAllocatedBytes();
+        AtomicInteger totalBookAmount = new AtomicInteger();
+        List<BookEntity> books;
+        if (twoPhaseFetch) {
+            books = new ArrayList<>();
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                totalBookAmount.set(resultSet.getInt(TOTAL_COLUMN));
+                BookEntity book = getBookByResultSet(resultSet);
+                countFetchedRow(book);
+                books.add(book);
+            }
+            loadAuthorsAndGenres(books, connection);
+        } else {
+            books = getBookListFromResultSet(statement.executeQuery(), (row, book, author, genre) -> {
+                totalBookAmount.set(row.getInt(TOTAL_COLUMN));
+                countFetchedRow(book, author.getName(), genre.getName());
+            });
+        }
+        fetchedPages.increment();
+        if (allocatedBefore >= 0) {
+            allocatedBytes.add(metrics.getCurrentThreadAllocatedBytes() - allocatedBefore);
+        }
+        return BookPage.builder()
+                .books(books)
+                .totalBookAmount(totalBookAmount.get())
+                .build();
+    }
+
+    private void loadAuthorsAndGenres(List<BookEntity> books, Connection connection) throws SQLException {
+        Map<Integer, BookEntity> booksById = new HashMap<>();
+        for (BookEntity book : books) {
+            book.setAuthorEntities(new ArrayList<>());
+            book.setGenreEntities(new ArrayList<>());
+            booksById.put(book.getId(), book);
+        }
+        if (books.isEmpty()) {
+            return;
+        }
+        Array ids = connection.createArrayOf("integer", booksById.keySet().toArray());
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_AUTHORS_BY_BOOK_IDS_QUERY)) {
+            statement.setArray(1, ids);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String name = resultSet.getString(3);
+                booksById.get(resultSet.getInt(1)).getAuthorEntities().add(AuthorEntity.builder()
+                        .id(resultSet.getInt(2))
+                        .name(name)
+                        .build());
+                countFetchedRow(null, name);
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(SELECT_GENRES_BY_BOOK_IDS_QUERY)) {
+            statement.setArray(1, ids);
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                String name = resultSet.getString(3);
+                booksById.get(resultSet.getInt(1)).getGenreEntities().add(GenreEntity.builder()
+                        .id(resultSet.getInt(2))
+                        .name(name)
+                        .build());
+                countFetchedRow(null, name);
+            }
+        }
+    }
+
+    /**
+     * Adds a row read for a page to the metrics, with the approximate size of its values: the text
+     * of the book, if the row has one, the names it carries and the fixed width columns.
+     */
+    private void countFetchedRow(BookEntity book, String... names) {
+        long bytes = FIXED_WIDTH_COLUMNS_BYTES;
+        if (book != null) {
+            bytes += length(book.getTitle()) + length(book.getPublisher()) + length(book.getISBN())
+                    + length(book.getDescription()) + length(book.getCoverVersion());
+        }
+        for (String name : names) {
+            bytes += length(name);
+        }
+        fetchedRows.increment();
+        fetchedPayloadBytes.add(bytes);
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+
     private List<BookEntity> getBookListFromResultSet(ResultSet resultSet) throws SQLException {
+        return getBookListFromResultSet(resultSet, (row, book, author, genre) -> {
+        });
+    }
+
+    private List<BookEntity> getBookListFromResultSet(ResultSet resultSet, RowReader rowReader) throws SQLException {
         List<BookEntity> books = new ArrayList<>();
         BookEntity book = BookEntity.builder().build();
         Set<AuthorEntity> authorSet = new HashSet<>();
@@ -240,8 +621,11 @@ public class BookDaoImpl extends BaseDao implements BookDao {
                 books.add(book);
             }
             book = getBookByResultSet(resultSet);
-            authorSet.add(getAuthorByResultSet(resultSet));
-            genreSet.add(getGenreByResultSet(resultSet));
+            AuthorEntity author = getAuthorByResultSet(resultSet);
+            GenreEntity genre = getGenreByResultSet(resultSet);
+            authorSet.add(author);
+            genreSet.add(genre);
+            rowReader.read(resultSet, book, author, genre);
 
             prevBookId = resultSet.getInt(1);
             resultSetIndex++;
@@ -256,33 +640,50 @@ public class BookDaoImpl extends BaseDao implements BookDao {
     }
 
     private BookEntity getBookByResultSet(ResultSet resultSet) throws SQLException {
-        int i = 1;
         return BookEntity.builder()
-                .id(resultSet.getInt(i++))
-                .title(resultSet.getString(i++))
-                .publisher(resultSet.getString(i++))
-                .publishDate(resultSet.getDate(i++))
-                .pageCount(resultSet.getInt(i++))
-                .ISBN(resultSet.getString(i++))
-                .description(resultSet.getString(i++))
-                .cover(resultSet.getBinaryStream(i++))
-                .availableBookAmount(resultSet.getInt(i++))
-                .totalBookAmount(resultSet.getInt(i++))
+                .id(resultSet.getInt("id"))
+                .title(resultSet.getString("title"))
+                .publisher(resultSet.getString("publisher"))
+                .publishDate(resultSet.getDate("publish_date"))
+                .pageCount(resultSet.getInt("page_count"))
+                .ISBN(resultSet.getString("isbn"))
+                .description(resultSet.getString("description"))
+                .coverVersion(resultSet.getString("cover_version"))
+                .availableBookAmount(resultSet.getInt("available"))
+                .totalBookAmount(resultSet.getInt("total_amount"))
                 .build();
 
     }
 
     private AuthorEntity getAuthorByResultSet(ResultSet resultSet) throws SQLException {
         return AuthorEntity.builder()
-                .id(resultSet.getInt(11))
-                .name(resultSet.getString(12))
+                .id(resultSet.getInt("author_id"))
+                .name(resultSet.getString("author_name"))
                 .build();
     }
 
     private GenreEntity getGenreByResultSet(ResultSet resultSet) throws SQLException {
         return GenreEntity.builder()
-                .id(resultSet.getInt(13))
-                .name(resultSet.getString(14))
+                .id(resultSet.getInt("genre_id"))
+                .name(resultSet.getString("genre_name"))
+                .build();
+    }
+
+    private BookCoverEntity getCoverByResultSet(ResultSet resultSet, CoverSize size, boolean withContent) throws SQLException {
+        return BookCoverEntity.builder()
+                .id(resultSet.getInt(1))
+                .version(resultSet.getString(2))
+                .updatedAt(resultSet.getTimestamp(3))
+                .length(resultSet.getLong(4))
+                .size(resultSet.getBoolean(5) ? size : CoverSize.ORIGINAL)
+                .sha256(resultSet.getString(6))
+                .content(withContent ? resultSet.getBytes(7) : null)
                 .build();
     }
+
+    @FunctionalInterface
+    private interface RowReader {
+
+        void read(ResultSet resultSet, BookEntity book, AuthorEntity author, GenreEntity genre) throws SQLException;
+    }
 }
@@ -0,0 +1,181 @@
+package com.itechart.book_library.dao.impl;
+
+import com.itechart.book_library.dao.api.BaseDao;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Staging table of a bulk catalog import and the set-based statements merging it into the catalog. The staging
+ * table lives for one transaction, it is filled with {@code COPY} and merged before the transaction commits.
+ * Books are matched by ISBN: a known ISBN updates its book, a new one creates a book. Author and genre names
+ * are upserted, which needs the unique names of {@code V5__author-genre-unique-names.sql}. The search documents
+ * are only rebuilt when {@code search.mode=full-text}.
+ * <p>
+ * The statements go through plain {@link Statement}s, as the staging table is created anew in every transaction
+ * and its statements are not worth caching.
+ */
+@Log4j
+public class BookImportDaoImpl extends BaseDao {
+
+    private static final String CREATE_STAGING_TABLE_QUERY = """
+            CREATE TEMPORARY TABLE book_import
+            (
+                line         bigint  NOT NULL,
+                title        text    NOT NULL,
+                authors      text[]  NOT NULL,
+                genres       text[]  NOT NULL,
+                publisher    text,
+                publish_date date,
+                page_count   integer,
+                isbn         text    NOT NULL,
+                description  text,
+                total_amount integer NOT NULL,
+                cover        bytea,
+                cover_sha256 char(64),
+                book_id      integer,
+                existing     boolean NOT NULL DEFAULT false
+            ) ON COMMIT DROP""";
+    private static final String COPY_QUERY = """
+            COPY book_import (line, title, authors, genres, publisher, publish_date, page_count, isbn, description,
+                              total_amount, cover, cover_sha256)
+                FROM STDIN""";
+    // the last line of an ISBN wins, as the file is read top to bottom
+    private static final String DELETE_DUPLICATES_QUERY = """
+            DELETE
+            FROM book_import
+            USING book_import later
+            WHERE later.isbn = book_import.isbn
+              AND later.line > book_import.line""";
+    // names are inserted in order, so that concurrent imports lock them in the same order
+    private static final String UPSERT_NAMES_QUERY = """
+            INSERT INTO %1$s (name)
+            SELECT DISTINCT unnest(%1$ss)
+            FROM book_import
+            ORDER BY 1
+            ON CONFLICT (name) DO NOTHING""";
+    private static final String MATCH_EXISTING_BOOKS_QUERY = """
+            UPDATE book_import
+            SET book_id  = book.id,
+                existing = true
+            FROM book
+            WHERE book.isbn = book_import.isbn""";
+    private static final String ASSIGN_NEW_IDS_QUERY = """
+            UPDATE book_import
+            SET book_id = nextval(pg_get_serial_sequence('book', 'id'))
+            WHERE book_id IS NULL""";
+    private static final String UPDATE_BOOKS_QUERY = """
+            UPDATE book
+            SET title        = book_import.title,
+                publisher    = book_import.publisher,
+                publish_date = book_import.publish_date,
+                page_count   = coalesce(book_import.page_count, book.page_count),
+                description  = book_import.description,
+                cover        = CASE WHEN book_import.cover_sha256 IS NULL THEN coalesce(book_import.cover, book.cover) END,
+                cover_sha256 = CASE
+                                   WHEN book_import.cover IS NOT NULL THEN NULL
+                                   ELSE coalesce(book_import.cover_sha256, book.cover_sha256) END,
+                available    = book_import.total_amount - book.total_amount + book.available,
+                total_amount = book_import.total_amount
+            FROM book_import
+            WHERE book.id = book_import.book_id
+              AND book_import.existing""";
+    private static final String INSERT_BOOKS_QUERY = """
+            INSERT INTO book (id, title, publisher, publish_date, page_count, isbn, description, cover, cover_sha256,
+                              available, total_amount)
+            SELECT book_id, title, publisher, publish_date, coalesce(page_count, 0), isbn, description, cover,
+                   cover_sha256, total_amount, total_amount
+            FROM book_import
+            WHERE NOT existing""";
+    private static final String DELETE_STALE_LINKS_QUERY = """
+            DELETE
+            FROM %1$s_book
+            USING book_import
+            WHERE %1$s_book.book_id = book_import.book_id
+              AND book_import.existing
+              AND %1$s_book.%1$s_id NOT IN (SELECT %1$s.id FROM %1$s WHERE %1$s.name = ANY (book_import.%1$ss))""";
+    private static final String INSERT_LINKS_QUERY = """
+            INSERT INTO %1$s_book (%1$s_id, book_id)
+            SELECT DISTINCT %1$s.id, book_import.book_id
+            FROM book_import
+                     CROSS JOIN unnest(book_import.%1$ss) AS imported(name)
+                     JOIN %1$s ON %1$s.name = imported.name
+            ON CONFLICT DO NOTHING""";
+    private static final String UPSERT_SEARCH_DOCUMENTS_QUERY = BookDaoImpl.UPSERT_SEARCH_DOCUMENTS_QUERY
+            .formatted("book.id IN (SELECT book_id FROM book_import)");
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    private boolean fullTextSearch;
+
+    public BookImportDaoImpl() {
+        try {
+            Properties applicationProperties = new Properties();
+            applicationProperties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+            this.fullTextSearch = "full-text".equals(applicationProperties.getProperty("search.mode", "regex"));
+        } catch (IOException e) {
+            log.error("Cannot read application properties ", e);
+        }
+    }
+
+    public void createStagingTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING_TABLE_QUERY);
+        }
+    }
+
+    /**
+     * Starts copying rows into the staging table. Rows are written in the {@code COPY} text format, in the column
+     * order of the staging table, and sent as the buffer fills; {@link PGCopyOutputStream#endCopy()} ends the copy.
+     */
+    public PGCopyOutputStream copyIntoStagingTable(Connection connection) throws SQLException {
+        return new PGCopyOutputStream(connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_QUERY),
+                COPY_BUFFER_SIZE);
+    }
+
+    /**
+     * Merges the staging table into the books, their authors and genres and, in full-text mode, their search documents.
+     */
+    public MergeCounts merge(Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            int duplicates = statement.executeUpdate(DELETE_DUPLICATES_QUERY);
+            statement.executeUpdate(UPSERT_NAMES_QUERY.formatted("author"));
+            statement.executeUpdate(UPSERT_NAMES_QUERY.formatted("genre"));
+            statement.executeUpdate(MATCH_EXISTING_BOOKS_QUERY);
+            statement.executeUpdate(ASSIGN_NEW_IDS_QUERY);
+            int updated = statement.executeUpdate(UPDATE_BOOKS_QUERY);
+            int created = statement.executeUpdate(INSERT_BOOKS_QUERY);
+            for (String table : new String[]{"author", "genre"}) {
+                statement.executeUpdate(DELETE_STALE_LINKS_QUERY.formatted(table));
+                statement.executeUpdate(INSERT_LINKS_QUERY.formatted(table));
+            }
+            if (fullTextSearch) {
+                statement.executeUpdate(UPSERT_SEARCH_DOCUMENTS_QUERY);
+            }
+            return new MergeCounts(created, updated, duplicates);
+        } finally {
+            metrics.recordQuery("BookImportDaoImpl.merge", start);
+        }
+    }
+
+    @Getter
+    public static class MergeCounts {
+
+        private final int created;
+        private final int updated;
+        private final int duplicates;
+
+        private MergeCounts(int created, int updated, int duplicates) {
+            this.created = created;
+            this.updated = updated;
+            this.duplicates = duplicates;
+        }
+    }
+}
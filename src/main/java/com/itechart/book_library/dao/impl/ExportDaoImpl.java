@@ -0,0 +1,132 @@
+package com.itechart.book_library.dao.impl;
+
+import com.itechart.book_library.connection.ConnectionLease;
+import com.itechart.book_library.dao.api.BaseDao;
+import com.itechart.book_library.dao.api.RowHandler;
+
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams whole tables for exports. The queries run on the replica in a read-only transaction with a fetch size,
+ * which makes the driver read the rows through a server-side cursor a batch at a time instead of loading the
+ * whole result, and each row is handed over as soon as it is read.
+ */
+public class ExportDaoImpl extends BaseDao {
+
+    // columns of the catalog import, so an export can be imported again
+    private static final String SELECT_BOOKS_QUERY = """
+            SELECT book.id,
+                   book.title,
+                   array(SELECT author.name
+                         FROM author_book
+                                  JOIN author ON author.id = author_book.author_id
+                         WHERE author_book.book_id = book.id
+                         ORDER BY author.id) AS authors,
+                   array(SELECT genre.name
+                         FROM genre_book
+                                  JOIN genre ON genre.id = genre_book.genre_id
+                         WHERE genre_book.book_id = book.id
+                         ORDER BY genre.id) AS genres,
+                   book.publisher,
+                   book.publish_date,
+                   book.page_count,
+                   book.isbn,
+                   book.description,
+                   book.total_amount,
+                   book.available
+            FROM book
+            ORDER BY book.id""";
+    private static final String SELECT_RECORDS_QUERY = """
+            SELECT record.id,
+                   record.book_id,
+                   book.isbn,
+                   book.title,
+                   reader.email,
+                   reader.first_name,
+                   record.borrow_date,
+                   record.due_date,
+                   record.return_date,
+                   record.status::text AS status
+            FROM record
+                     JOIN book ON book.id = record.book_id
+                     JOIN reader ON reader.id = record.reader_id
+            ORDER BY record.id""";
+
+    /**
+     * @return the number of rows streamed
+     */
+    public long streamBooks(int fetchSize, RowHandler handler) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            return stream(SELECT_BOOKS_QUERY, fetchSize, handler);
+        } finally {
+            metrics.recordQuery("ExportDaoImpl.streamBooks", start);
+        }
+    }
+
+    /**
+     * @return the number of rows streamed
+     */
+    public long streamRecords(int fetchSize, RowHandler handler) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            return stream(SELECT_RECORDS_QUERY, fetchSize, handler);
+        } finally {
+            metrics.recordQuery("ExportDaoImpl.streamRecords", start);
+        }
+    }
+
+    private long stream(String query, int fetchSize, RowHandler handler) throws SQLException, IOException {
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection()) {
+            // the driver only uses a cursor inside a transaction, which closing the lease rolls back
+            connection.setAutoCommit(false);
+            // not taken from the statement cache, as the fetch size belongs to this export
+            try (PreparedStatement statement = connection.prepareStatement(query,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ResultSetMetaData metaData = resultSet.getMetaData();
+                    List<String> columns = new ArrayList<>();
+                    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                        columns.add(metaData.getColumnLabel(i));
+                    }
+                    handler.start(columns);
+                    Object[] values = new Object[columns.size()];
+                    long rows = 0;
+                    while (resultSet.next()) {
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = toValue(resultSet.getObject(i + 1));
+                        }
+                        handler.row(values);
+                        rows++;
+                    }
+                    return rows;
+                }
+            }
+        }
+    }
+
+    private static Object toValue(Object value) throws SQLException {
+        if (value instanceof Array) {
+            Array array = (Array) value;
+            try {
+                return Arrays.asList((Object[]) array.getArray());
+            } finally {
+                array.free();
+            }
+        }
+        if (value instanceof Date) {
+            return ((Date) value).toLocalDate().toString();
+        }
+        return value;
+    }
+}
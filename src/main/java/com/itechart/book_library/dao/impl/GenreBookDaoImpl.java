@@ -5,33 +5,39 @@ import com.itechart.book_library.dao.api.BaseDao;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Collection;
 
 public class GenreBookDaoImpl extends BaseDao {
 
-    private static final String INSERT_GENRE_BOOK_QUERY = "INSERT INTO genre_book (genre_id, book_id) VALUES (?,?)";
-    private static final String DELETE_GENRE_BOOK_QUERY = """
-            DELETE
-            from genre_book
-            where book_id in (
-                select book_id
-                from genre_book
-                         join genre on genre.id = genre_book.genre_id
-                         join book on book.id = genre_book.book_id
-                where book_id = ?
-            )""";
+    /**
+     * Deletes the links the book no longer has and inserts the new ones in one statement, keeping the links
+     * that did not change. Both parts see the links as they were before the statement.
+     */
+    private static final String SET_GENRES_OF_BOOK_QUERY = """
+            WITH removed AS (
+                DELETE
+                FROM genre_book
+                WHERE book_id = ?
+                  AND genre_id <> ALL (?::int[])
+            )
+            INSERT
+            INTO genre_book (genre_id, book_id)
+            SELECT DISTINCT new_genre.id, ?
+            FROM unnest(?::int[]) AS new_genre(id)
+            WHERE NOT EXISTS(SELECT 1 FROM genre_book WHERE book_id = ? AND genre_id = new_genre.id)""";
 
-    public void setGenreToBook(int authorId, int bookId, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(INSERT_GENRE_BOOK_QUERY)) {
-            statement.setInt(1, authorId);
-            statement.setInt(2, bookId);
-            statement.execute();
-        }
-    }
-
-    public void removeGenresFromBook(int bookId, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(DELETE_GENRE_BOOK_QUERY)) {
+    public void setGenresOfBook(int bookId, Collection<Integer> genreIds, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(SET_GENRES_OF_BOOK_QUERY)) {
+            Object[] ids = genreIds.toArray();
             statement.setInt(1, bookId);
+            statement.setArray(2, connection.createArrayOf("int4", ids));
+            statement.setInt(3, bookId);
+            statement.setArray(4, connection.createArrayOf("int4", ids));
+            statement.setInt(5, bookId);
             statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("GenreBookDaoImpl.setGenresOfBook", start);
         }
     }
 }
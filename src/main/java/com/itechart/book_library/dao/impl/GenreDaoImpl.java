@@ -1,5 +1,6 @@
 package com.itechart.book_library.dao.impl;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.dao.api.GenreDao;
 import com.itechart.book_library.model.entity.GenreEntity;
@@ -10,7 +11,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class GenreDaoImpl extends BaseDao implements GenreDao {
@@ -19,24 +22,39 @@ public class GenreDaoImpl extends BaseDao implements GenreDao {
 
     private static final String INSERT_QUERY = "INSERT INTO genre (id, name) VALUES (DEFAULT, ?) RETURNING id";
     private static final String SELECT_BY_ID_QUERY = "SELECT * FROM genre WHERE id = ?";
-    private static final String SELECT_BY_NAME_QUERY = "SELECT * FROM genre WHERE name = ?";
     private static final StringBuilder TEMPLATE_DELETE_QUERY = new StringBuilder("DELETE FROM genre WHERE id IN(?");
     private static StringBuilder DELETE_QUERY = TEMPLATE_DELETE_QUERY;
+    /**
+     * Shared by every instance, as each service gets its own DAO instance.
+     */
+    private static final NameDictionary DICTIONARY = new NameDictionary("genre", "GenreDaoImpl");
+
+    public GenreDaoImpl() {
+        DICTIONARY.loadIfNeeded(connectionPool);
+    }
 
     @Override
     public GenreEntity create(GenreEntity genre, Connection connection) throws SQLException {
+        long start = System.nanoTime();
         try (PreparedStatement statement = connection.prepareStatement(INSERT_QUERY)) {
             statement.setString(1, genre.getName());
             statement.execute();
             genre.setId(getIdAfterInserting(statement));
+        } finally {
+            metrics.recordQuery("GenreDaoImpl.create", start);
         }
         return genre;
     }
 
     @Override
     public Optional<GenreEntity> getById(int id) {
-        List<GenreEntity> rsList = getListByKey(SELECT_BY_ID_QUERY, id);
-        return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+        long start = System.nanoTime();
+        try {
+            List<GenreEntity> rsList = getListByKey(SELECT_BY_ID_QUERY, id);
+            return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+        } finally {
+            metrics.recordQuery("GenreDaoImpl.getById", start);
+        }
     }
 
     @Override
@@ -53,34 +71,23 @@ public class GenreDaoImpl extends BaseDao implements GenreDao {
     }
 
     @Override
-    public Optional<GenreEntity> getByName(String name) {
-        List<GenreEntity> rsList = getListByKey(SELECT_BY_NAME_QUERY, name);
-        return rsList.isEmpty() ? Optional.empty() : Optional.of(rsList.get(0));
+    public Map<String, Integer> getOrCreateIds(Collection<String> names, Connection connection) throws SQLException {
+        return DICTIONARY.getOrCreateIds(names, connection);
+    }
+
+    @Override
+    public void addCommittedIds(Map<String, Integer> ids) {
+        DICTIONARY.addAll(ids);
     }
 
     private List<GenreEntity> getListByKey(String query, int id) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
+        try (ConnectionLease connection = connectionPool.getConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
             statement.setInt(1, id);
             return getListFromResultSet(statement.executeQuery());
         } catch (SQLException e) {
             log.error("Cannot get list by " + id + " key ", e);
             return new ArrayList<>();
-        } finally {
-            connectionPool.returnToPool(connection);
-        }
-    }
-
-    private List<GenreEntity> getListByKey(String query, String text) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, text);
-            return getListFromResultSet(statement.executeQuery());
-        } catch (SQLException e) {
-            log.error("Cannot get list by " + text + " key ", e);
-            return new ArrayList<>();
-        } finally {
-            connectionPool.returnToPool(connection);
         }
     }
 
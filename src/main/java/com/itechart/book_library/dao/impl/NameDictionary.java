@@ -0,0 +1,122 @@
+package com.itechart.book_library.dao.impl;
+
+import com.itechart.book_library.connection.ConnectionLease;
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import lombok.extern.log4j.Log4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory name to id dictionary of a table of names, author or genre. These tables are small and only grow,
+ * so the whole table is loaded once and a known id never goes stale. Names missing from the dictionary are
+ * upserted in bulk on the caller's connection, which needs the unique names of
+ * {@code V5__author-genre-unique-names.sql}. Ids resolved in a transaction are only added once the caller has
+ * committed it, as a rollback takes back the names it created.
+ */
+@Log4j
+class NameDictionary {
+
+    private static final String SELECT_ALL_QUERY = "SELECT id, name FROM %s";
+    // updating the conflicting row, rather than doing nothing, makes RETURNING report the ids of existing names too;
+    // locking the names in one order keeps concurrent upserts of overlapping names from deadlocking
+    private static final String UPSERT_NAMES_QUERY = """
+            INSERT INTO %s (name)
+            SELECT DISTINCT unnest(?::text[])
+            ORDER BY 1
+            ON CONFLICT (name) DO UPDATE SET name = excluded.name
+            RETURNING id, name""";
+
+    private final String table;
+    private final String timerPrefix;
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicBoolean loaded = new AtomicBoolean();
+    private final MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    NameDictionary(String table, String timerPrefix) {
+        this.table = table;
+        this.timerPrefix = timerPrefix;
+        String labels = "dictionary=\"" + table + "\",result=";
+        hits = metrics.counter("book_library_name_dictionary_lookups_total", "Name to id lookups", labels + "\"hit\"");
+        misses = metrics.counter("book_library_name_dictionary_lookups_total", "Name to id lookups", labels + "\"miss\"");
+        metrics.gauge("book_library_name_dictionary_size", "Names in the name to id dictionary",
+                "dictionary=\"" + table + "\"", ids::size);
+    }
+
+    /**
+     * Loads the whole table once; later calls do nothing. If loading fails the names are looked up as they are used.
+     */
+    void loadIfNeeded(ConnectionPool connectionPool) {
+        if (!loaded.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(String.format(SELECT_ALL_QUERY, table))) {
+            putAll(statement.executeQuery(), ids);
+            log.info("Loaded " + ids.size() + " " + table + " names");
+        } catch (SQLException e) {
+            log.error("Cannot load " + table + " names ", e);
+        } finally {
+            metrics.recordQuery(timerPrefix + ".loadDictionary", start);
+        }
+    }
+
+    /**
+     * Returns the ids of the names, creating the missing names in the caller's transaction.
+     * Takes at most one statement, whatever the number of names.
+     */
+    Map<String, Integer> getOrCreateIds(Collection<String> names, Connection connection) throws SQLException {
+        Map<String, Integer> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String name : new LinkedHashSet<>(names)) {
+            Integer id = ids.get(name);
+            if (id != null) {
+                found.put(name, id);
+            } else {
+                missing.add(name);
+            }
+        }
+        hits.add(found.size());
+        misses.add(missing.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(String.format(UPSERT_NAMES_QUERY, table))) {
+            statement.setArray(1, connection.createArrayOf("text", missing.toArray()));
+            putAll(statement.executeQuery(), found);
+        } finally {
+            metrics.recordQuery(timerPrefix + ".upsertAll", start);
+        }
+        return found;
+    }
+
+    /**
+     * Adds names resolved in a transaction the caller has committed.
+     */
+    void addAll(Map<String, Integer> committedIds) {
+        ids.putAll(committedIds);
+    }
+
+    private static void putAll(ResultSet resultSet, Map<String, Integer> target) throws SQLException {
+        while (resultSet.next()) {
+            target.put(resultSet.getString(2), resultSet.getInt(1));
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.itechart.book_library.dao.impl;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.dao.api.RecordDao;
 import com.itechart.book_library.model.entity.ReaderEntity;
 import com.itechart.book_library.model.entity.RecordEntity;
+import com.itechart.book_library.model.entity.Status;
 import lombok.extern.log4j.Log4j;
 
 import java.sql.Connection;
@@ -12,12 +14,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
 @Log4j
 public class RecordDaoImpl extends BaseDao implements RecordDao {
 
-    private static final String INSERT_QUERY = "INSERT INTO record (id, book_id, reader_id, borrow_date, due_date) VALUES (DEFAULT, ?, ?, ?, ?) RETURNING id";
     private static final String SELECT_RECORDS_BY_BOOK_ID_QUERY = """
              select record.id, record.book_id, record.reader_id, record.borrow_date, record.due_date,
                     reader.email, reader.first_name, record.return_date
@@ -26,48 +26,68 @@ public class RecordDaoImpl extends BaseDao implements RecordDao {
                       join book on record.book_id = book.id
              where book.id = ? and case when ? then record.status = 'BORROWED' else record.status != 'BORROWED' end;
             """;
-    private static final String UPDATE_STATUS_QUERY = "update record set status = ?, return_date = current_date where id = ?";
-    @Override
-    public RecordEntity create(RecordEntity recordEntity, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(INSERT_QUERY)) {
-            statement.setInt(1, recordEntity.getBookId());
-            statement.setInt(2, recordEntity.getReader().getId());
-            statement.setDate(3, recordEntity.getBorrowDate());
-            statement.setDate(4, recordEntity.getDueDate());
-            statement.execute();
-            recordEntity.setId(getIdAfterInserting(statement));
-        }
-        return recordEntity;
-    }
-
-    @Override
-    public Optional<RecordEntity> getById(int id) {
-        return Optional.empty();
-    }
+    private static final String INSERT_FOR_NON_HOLDERS_QUERY = """
+            INSERT INTO record (book_id, reader_id, borrow_date, due_date)
+            SELECT ?, new_record.reader_id, new_record.borrow_date, new_record.due_date
+            FROM unnest(?::int[], ?::date[], ?::date[]) AS new_record(reader_id, borrow_date, due_date)
+            WHERE NOT EXISTS(SELECT 1
+                             FROM record
+                             WHERE record.book_id = ?
+                               AND record.reader_id = new_record.reader_id
+                               AND record.status = 'BORROWED')""";
+    // a record returned or lost in between is left alone, so its book is not counted twice
+    private static final String UPDATE_BORROWED_STATUSES_QUERY = """
+            UPDATE record
+            SET status      = new_status.status,
+                return_date = current_date
+            FROM unnest(?::int[], ?::text[]) AS new_status(id, status)
+            WHERE record.id = new_status.id
+              AND record.status = 'BORROWED'
+            RETURNING record.id, record.book_id, record.status""";
 
     @Override
-    public void update(RecordEntity record, Connection connection) throws SQLException {
-        try (PreparedStatement statement = connection.prepareStatement(UPDATE_STATUS_QUERY)) {
-            statement.setString(1, record.getStatus().name());
-            statement.setInt(2, record.getId());
-            statement.executeUpdate();
+    public int createForNonHolders(int bookId, List<RecordEntity> records, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_FOR_NON_HOLDERS_QUERY)) {
+            statement.setInt(1, bookId);
+            statement.setArray(2, connection.createArrayOf("int4",
+                    records.stream().map(record -> record.getReader().getId()).toArray()));
+            statement.setArray(3, connection.createArrayOf("date", records.stream().map(RecordEntity::getBorrowDate).toArray()));
+            statement.setArray(4, connection.createArrayOf("date", records.stream().map(RecordEntity::getDueDate).toArray()));
+            statement.setInt(5, bookId);
+            return statement.executeUpdate();
+        } finally {
+            metrics.recordQuery("RecordDaoImpl.createForNonHolders", start);
         }
     }
 
     @Override
-    public void delete(Integer[] ids) {
-
-    }
-
-    @Override
-    public void delete(Integer[] ids, Connection connection) throws SQLException {
-
+    public List<RecordEntity> updateBorrowedStatuses(List<RecordEntity> records, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement statement = connection.prepareStatement(UPDATE_BORROWED_STATUSES_QUERY)) {
+            statement.setArray(1, connection.createArrayOf("int4", records.stream().map(RecordEntity::getId).toArray()));
+            statement.setArray(2, connection.createArrayOf("text",
+                    records.stream().map(record -> record.getStatus().name()).toArray()));
+            List<RecordEntity> changed = new ArrayList<>();
+            ResultSet resultSet = statement.executeQuery();
+            while (resultSet.next()) {
+                changed.add(RecordEntity.builder()
+                        .id(resultSet.getInt(1))
+                        .bookId(resultSet.getInt(2))
+                        .status(Status.valueOf(resultSet.getString(3)))
+                        .build());
+            }
+            return changed;
+        } finally {
+            metrics.recordQuery("RecordDaoImpl.updateBorrowedStatuses", start);
+        }
     }
 
     @Override
     public List<RecordEntity> getRecordsByBookId(int bookId, boolean areRecordsActive) {
-        Connection connection = connectionPool.getConnection();
-        try (PreparedStatement statement = connection.prepareStatement(SELECT_RECORDS_BY_BOOK_ID_QUERY)) {
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getReadOnlyConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_RECORDS_BY_BOOK_ID_QUERY)) {
             statement.setInt(1, bookId);
             statement.setBoolean(2, areRecordsActive);
             return getRecordListFromResultSet(statement.executeQuery());
@@ -75,7 +95,7 @@ public class RecordDaoImpl extends BaseDao implements RecordDao {
             log.error("Cannot get books ", e);
             return new ArrayList<>();
         } finally {
-            connectionPool.returnToPool(connection);
+            metrics.recordQuery("RecordDaoImpl.getRecordsByBookId", start);
         }
     }
 
@@ -0,0 +1,48 @@
+package com.itechart.book_library.metrics;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with exponential buckets from 100 microseconds to about 52 seconds.
+ * Recording is a couple of striped counter increments, so it is safe to use on hot paths.
+ */
+public class Histogram {
+
+    private static final long BASE_NANOS = 100_000;
+    private static final int BUCKET_COUNT = 20;
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, nanos) / BASE_NANOS);
+        if (bucket < BUCKET_COUNT) {
+            buckets[bucket].increment();
+        }
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    void write(PrintWriter writer, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += buckets[i].sum();
+            double upperBound = (BASE_NANOS << i) / NANOS_PER_SECOND;
+            writer.printf("%s_bucket{%sle=\"%s\"} %d%n", name, prefix, upperBound, cumulative);
+        }
+        long total = count.sum();
+        writer.printf("%s_bucket{%sle=\"+Inf\"} %d%n", name, prefix, total);
+        writer.printf("%s_sum%s %s%n", name, MetricsRegistry.braces(labels), sumNanos.sum() / NANOS_PER_SECOND);
+        writer.printf("%s_count%s %d%n", name, MetricsRegistry.braces(labels), total);
+    }
+}
@@ -0,0 +1,105 @@
+package com.itechart.book_library.metrics;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Application-wide registry of counters, gauges and histograms, written out in the Prometheus text format.
+ */
+public enum MetricsRegistry {
+    INSTANCE;
+
+    private static final String QUERY_DURATION = "book_library_dao_query_duration_seconds";
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> queryHistograms = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) family(name, help, "counter").metrics.computeIfAbsent(labels, key -> new LongAdder());
+    }
+
+    public void gauge(String name, String help, String labels, LongSupplier supplier) {
+        family(name, help, "gauge").metrics.put(labels, supplier);
+    }
+
+    public Histogram histogram(String name, String help, String labels) {
+        return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labels, key -> new Histogram());
+    }
+
+    /**
+     * Records one execution of a DAO method, e.g. {@code "BookDaoImpl.getById"}, started at the given
+     * {@link System#nanoTime()}. Called from the {@code finally} block of the method.
+     */
+    public void recordQuery(String method, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Histogram histogram = queryHistograms.get(method);
+        if (histogram == null) {
+            histogram = queryHistograms.computeIfAbsent(method, key -> histogram(QUERY_DURATION,
+                    "Execution time of DAO methods", "method=\"" + key + "\""));
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Returns the number of bytes the current thread has allocated on the heap so far,
+     * or -1 if the JVM cannot tell.
+     */
+    public long getCurrentThreadAllocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean allocationMXBean
+                && allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+            return allocationMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    public void write(PrintWriter writer) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.printf("# HELP %s %s%n", name, family.help);
+            writer.printf("# TYPE %s %s%n", name, family.type);
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof Histogram histogram) {
+                    histogram.write(writer, name, labels);
+                } else if (value instanceof LongAdder counter) {
+                    writer.printf("%s%s %d%n", name, braces(labels), counter.sum());
+                } else if (value instanceof LongSupplier gauge) {
+                    writer.printf("%s%s %d%n", name, braces(labels), gauge.getAsLong());
+                }
+            }
+        }
+    }
+
+    static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static class Family {
+
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -4,7 +4,6 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 
-import java.io.InputStream;
 import java.time.LocalDate;
 import java.util.List;
 
@@ -22,8 +21,10 @@ public class BookDto {
     private int pageCount;
     private String ISBN;
     private String description;
-    private InputStream cover;
-    private String base64Cover;
+    private CoverUpload cover;
+    private String coverUrl;
+    private String coverThumbnailUrl;
+    private String coverMediumUrl;
     private int availableBookAmount;
     private int totalBookAmount;
 }
@@ -0,0 +1,27 @@
+package com.itechart.book_library.model.dto;
+
+import com.itechart.book_library.dao.criteria.PageCursor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+
+@Builder
+@Getter
+public class BookPageDto {
+
+    private List<BookDto> books;
+    private int totalBookAmount;
+    /**
+     * The total as shown to the user, e.g. "1000+" when counting stopped at a cap.
+     */
+    private String totalBookAmountLabel;
+    private boolean hasPrevious;
+    private boolean hasNext;
+    /**
+     * Cursors of the neighbouring pages, {@code null} when there is no such page or the books
+     * are not ordered by id, e.g. ranked full-text search results.
+     */
+    private PageCursor previousCursor;
+    private PageCursor nextCursor;
+}
@@ -0,0 +1,25 @@
+package com.itechart.book_library.model.dto;
+
+import lombok.AllArgsConstructor;
+
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Cover uploaded with the book form. The container has already spooled it to disk, so it is not held
+ * on the heap; it is streamed from there when stored, with its length known up front.
+ */
+@AllArgsConstructor
+public class CoverUpload {
+
+    private final Part part;
+
+    public long getLength() {
+        return part.getSize();
+    }
+
+    public InputStream open() throws IOException {
+        return part.getInputStream();
+    }
+}
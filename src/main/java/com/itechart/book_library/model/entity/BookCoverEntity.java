@@ -0,0 +1,39 @@
+package com.itechart.book_library.model.entity;
+
+import lombok.Getter;
+import lombok.experimental.SuperBuilder;
+
+import java.nio.file.Path;
+import java.sql.Timestamp;
+
+/**
+ * Cover image of the book with the same id in one of its sizes, with the metadata needed to serve it over HTTP.
+ * The image is either in the book row or in a file named by its SHA-256.
+ */
+@SuperBuilder
+@Getter
+public class BookCoverEntity extends Entity {
+
+    /**
+     * MD5 of a cover stored in the row, SHA-256 of one stored as a file.
+     */
+    private String version;
+    /**
+     * The rendition actually loaded, the original while the requested one is not generated yet.
+     */
+    private CoverSize size;
+    private Timestamp updatedAt;
+    private long length;
+    /**
+     * The image bytes, {@code null} when only the metadata was loaded or the cover is stored as a file.
+     */
+    private byte[] content;
+    /**
+     * SHA-256 of the original image if it is stored as a file, {@code null} if it is stored in the row.
+     */
+    private String sha256;
+    /**
+     * The file of the rendition, set once it has been resolved in the cover store.
+     */
+    private Path file;
+}
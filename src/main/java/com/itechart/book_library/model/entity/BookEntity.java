@@ -21,9 +21,28 @@ public class BookEntity extends Entity {
     private String ISBN;
     private String description;
     private InputStream cover;
+    private long coverLength;
+    /**
+     * SHA-256 of a cover to store as a file instead of {@link #cover}.
+     */
+    private String coverSha256;
+    /**
+     * MD5 of a cover stored in the row or SHA-256 of one stored as a file, {@code null} if the book has none.
+     * Read instead of the cover itself.
+     */
+    private String coverVersion;
     private int availableBookAmount;
     private int totalBookAmount;
 
+    public void setCover(InputStream cover, long coverLength) {
+        this.cover = cover;
+        this.coverLength = coverLength;
+    }
+
+    public void setCoverSha256(String coverSha256) {
+        this.coverSha256 = coverSha256;
+    }
+
     public void setAuthorEntities(List<AuthorEntity> authorEntities) {
         this.authorEntities = authorEntities;
     }
@@ -0,0 +1,41 @@
+package com.itechart.book_library.model.entity;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Renditions of a book cover, the book columns they are stored in and their names in {@code /cover?size=}.
+ */
+public enum CoverSize {
+    ORIGINAL("cover", "original"),
+    MEDIUM("cover_medium", "medium"),
+    THUMBNAIL("cover_thumbnail", "thumbnail");
+
+    private final String column;
+    private final String parameter;
+
+    CoverSize(String column, String parameter) {
+        this.column = column;
+        this.parameter = parameter;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    /**
+     * Returns the size named by the request parameter, the original if the parameter is absent.
+     */
+    public static Optional<CoverSize> fromParameter(String parameter) {
+        if (parameter == null) {
+            return Optional.of(ORIGINAL);
+        }
+        return Arrays.stream(values())
+                .filter(size -> size.parameter.equals(parameter))
+                .findFirst();
+    }
+}
@@ -1,30 +1,49 @@
 package com.itechart.book_library.service;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.connection.ConnectionPool;
 import com.itechart.book_library.dao.api.AuthorDao;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.dao.api.BookDao;
 import com.itechart.book_library.dao.api.GenreDao;
+import com.itechart.book_library.dao.criteria.BookPage;
 import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.PageCursor;
+import com.itechart.book_library.dao.criteria.TotalCount;
 import com.itechart.book_library.dao.impl.*;
 import com.itechart.book_library.model.dto.BookDto;
+import com.itechart.book_library.model.dto.BookPageDto;
 import com.itechart.book_library.model.entity.AuthorEntity;
 import com.itechart.book_library.model.entity.BookEntity;
 import com.itechart.book_library.model.entity.GenreEntity;
+import com.itechart.book_library.service.cache.BookCache;
+import com.itechart.book_library.service.cache.BookPageCache;
+import com.itechart.book_library.service.count.BookCount;
+import com.itechart.book_library.service.count.CountStrategy;
 import com.itechart.book_library.util.converter.api.BookConverter;
 import com.itechart.book_library.util.converter.impl.BookConverterImpl;
 import lombok.extern.log4j.Log4j;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Properties;
+import java.util.stream.Collectors;
 
 @Log4j
 public enum BookService {
     INSTANCE;
 
+    /**
+     * Shown when the books could not be counted.
+     */
+    private static final BookCount UNKNOWN_COUNT = new BookCount(0, false);
+
     private final ConnectionPool connectionPool = ConnectionPool.getInstance();
     private final BookDao bookDao = BaseDao.getDao(BookDaoImpl.class);
     private final AuthorDao authorDao = BaseDao.getDao(AuthorDaoImpl.class);
@@ -32,100 +51,244 @@ public enum BookService {
     private final AuthorBookDaoImpl authorBookDao = BaseDao.getDao(AuthorBookDaoImpl.class);
     private final GenreBookDaoImpl genreBookDao = BaseDao.getDao(GenreBookDaoImpl.class);
     private final BookConverter bookConverter = new BookConverterImpl();
+    private final CoverService coverService = CoverService.INSTANCE;
+    private final CountStrategy countStrategy = CountStrategy.create(loadApplicationProperties());
+    private final BookPageCache pageCache = BookPageCache.create(loadApplicationProperties());
+    private final BookCache bookCache = BookCache.create(loadApplicationProperties(), bookDao::getById, bookConverter::toDto);
 
     public void create(BookDto bookDto) {
 
         BookEntity bookEntity = bookConverter.toEntity(bookDto);
-        Connection connection = connectionPool.getConnection();
-        setAutoCommit(connection, false);
-        try {
-            bookDao.create(bookEntity, connection);
-            saveAuthorsAndGenres(bookEntity, connection);
-            commit(connection);
-        } catch (SQLException e) {
-            rollback(connection);
+        try (ConnectionLease connection = connectionPool.getConnection();
+             InputStream cover = coverService.prepare(bookEntity, bookDto.getCover())) {
+            setAutoCommit(connection, false);
+            try {
+                bookDao.create(bookEntity, connection);
+                saveAuthorsAndGenres(bookEntity, connection);
+                if (bookDao.isFullTextSearch()) {
+                    bookDao.updateSearchDocument(bookEntity.getId(), connection);
+                }
+                connection.commit();
+                addToDictionaries(bookEntity);
+                countStrategy.invalidate();
+                invalidatePages(List.of(bookEntity.getId()), List.of(bookEntity));
+                if (bookDto.getCover() != null) {
+                    coverService.scheduleRenditions(bookEntity.getId(), bookEntity.getCoverSha256());
+                }
+            } catch (SQLException e) {
+                rollback(connection);
+                log.error("Cannot create book ", e);
+            }
+        } catch (IOException e) {
+            log.error("Cannot read cover of book ", e);
         }
-
-        setAutoCommit(connection, true);
-        connectionPool.returnToPool(connection);
     }
 
     public void update(BookDto bookDto) {
-        if (bookDao.getById(bookDto.getId()).isEmpty()) {
+        Optional<BookEntity> oldBook = bookCache.getIfPresent(bookDto.getId());
+        if (oldBook.isEmpty() && !bookDao.exists(bookDto.getId())) {
             create(bookDto);
             return;
         }
+        // the old version finds the cached searches the book leaves, only its searchable fields are read for it
+        if (oldBook.isEmpty() && pageCache.isEnabled() && !pageCache.isEmpty()) {
+            oldBook = bookDao.getSearchFields(bookDto.getId());
+        }
         BookEntity book = bookConverter.toEntity(bookDto);
-        Connection connection = connectionPool.getConnection();
-        setAutoCommit(connection, false);
-        try {
-            bookDao.update(book, connection);
-            saveAuthorsAndGenres(book, connection);
-            commit(connection);
-        } catch (SQLException e) {
-            rollback(connection);
+        try (ConnectionLease connection = connectionPool.getConnection();
+             InputStream cover = coverService.prepare(book, bookDto.getCover())) {
+            setAutoCommit(connection, false);
+            try {
+                bookDao.update(book, connection);
+                saveAuthorsAndGenres(book, connection);
+                if (bookDao.isFullTextSearch()) {
+                    bookDao.updateSearchDocument(book.getId(), connection);
+                }
+                connection.commit();
+                addToDictionaries(book);
+                countStrategy.invalidate();
+                bookCache.invalidate(book.getId());
+                invalidatePages(List.of(book.getId()), oldBook.isPresent() ? List.of(oldBook.get(), book) : List.of(book));
+                if (bookDto.getCover() != null) {
+                    coverService.scheduleRenditions(book.getId(), book.getCoverSha256());
+                }
+            } catch (SQLException e) {
+                rollback(connection);
+                log.error("Cannot update book ", e);
+            }
+        } catch (IOException e) {
+            log.error("Cannot read cover of book ", e);
         }
-        setAutoCommit(connection, true);
-        connectionPool.returnToPool(connection);
     }
 
-    public List<BookDto> getLimitOffsetBySpecification(BookSpecification specification, int bookAmountOnOnePage, int page) {
+    public BookPageDto getLimitOffsetBySpecification(BookSpecification specification, int bookAmountOnOnePage, int page) {
+        String pageKey = "page:" + page;
+        Optional<BookPageDto> cachedPage = pageCache.get(specification, pageKey, bookAmountOnOnePage);
+        if (cachedPage.isPresent()) {
+            return cachedPage.get();
+        }
+        long generation = pageCache.currentGeneration();
         int offset = (page - 1) * bookAmountOnOnePage;
-        return bookConverter.toDtos(bookDao.getLimitOffsetBySpecification(specification, bookAmountOnOnePage, offset));
+        Optional<BookCount> cachedCount = countStrategy.getCached(specification);
+        TotalCount totalCount = cachedCount.isPresent() ? TotalCount.none() : countStrategy.getTotalCount(specification);
+        BookPage bookPage = bookDao.getLimitOffsetBySpecification(specification, bookAmountOnOnePage + 1, offset, totalCount);
+        List<BookEntity> books = bookPage.getBooks();
+        boolean hasNext = books.size() > bookAmountOnOnePage;
+        if (hasNext) {
+            books = books.subList(0, bookAmountOnOnePage);
+        }
+        Optional<BookCount> count = cachedCount.isPresent()
+                ? cachedCount
+                : getBookCount(specification, bookPage, totalCount, offset == 0);
+        BookPageDto bookPageDto = toPage(specification, books, page > 1, hasNext, count.orElse(UNKNOWN_COUNT));
+        if (!bookPage.isFailed() && count.isPresent()) {
+            pageCache.put(specification, pageKey, bookAmountOnOnePage, bookPageDto, generation);
+        }
+        return bookPageDto;
+    }
+
+    /**
+     * Returns the page next to the cursor by seeking on the book id, so its cost does not depend
+     * on how deep the page is. Falls back to the first page for ranked full-text searches,
+     * which are not ordered by id.
+     */
+    public BookPageDto getKeysetBySpecification(BookSpecification specification, PageCursor cursor, int bookAmountOnOnePage) {
+        if (bookDao.isRankedByRelevance(specification)) {
+            return getLimitOffsetBySpecification(specification, bookAmountOnOnePage, 1);
+        }
+        String pageKey = "cursor:" + cursor.encode();
+        Optional<BookPageDto> cachedPage = pageCache.get(specification, pageKey, bookAmountOnOnePage);
+        if (cachedPage.isPresent()) {
+            return cachedPage.get();
+        }
+        long generation = pageCache.currentGeneration();
+        Optional<BookCount> cachedCount = countStrategy.getCached(specification);
+        TotalCount totalCount = cachedCount.isPresent() ? TotalCount.none() : countStrategy.getTotalCount(specification);
+        BookPage bookPage = bookDao.getKeysetBySpecification(specification, cursor, bookAmountOnOnePage + 1, totalCount);
+        List<BookEntity> books = bookPage.getBooks();
+        boolean forward = cursor.getDirection() == PageCursor.Direction.NEXT;
+        boolean hasMore = books.size() > bookAmountOnOnePage;
+        if (hasMore) {
+            // the extra book is the farthest from the cursor: the last one going forward, the first one going back
+            books = forward ? books.subList(0, bookAmountOnOnePage) : books.subList(1, bookAmountOnOnePage + 1);
+        }
+        boolean hasPrevious = forward ? !books.isEmpty() : hasMore;
+        boolean hasNext = forward ? hasMore : !books.isEmpty();
+        Optional<BookCount> count = cachedCount.isPresent()
+                ? cachedCount
+                : getBookCount(specification, bookPage, totalCount, false);
+        BookPageDto bookPageDto = toPage(specification, books, hasPrevious, hasNext, count.orElse(UNKNOWN_COUNT));
+        if (!bookPage.isFailed() && count.isPresent()) {
+            pageCache.put(specification, pageKey, bookAmountOnOnePage, bookPageDto, generation);
+        }
+        return bookPageDto;
     }
 
     public BookDto getById(int id) {
-        Optional<BookEntity> optionalBook = bookDao.getById(id);
-        if (optionalBook.isEmpty()) return null;
-        return bookConverter.toDto(optionalBook.get());
+        return bookCache.getDto(id).orElse(null);
     }
 
-    private void saveAuthorsAndGenres(BookEntity bookEntity, Connection connection) throws SQLException {
-        removeAuthorsAndGenresFromBook(bookEntity, connection);
-        for (AuthorEntity authorEntity : bookEntity.getAuthorEntities()) {
-            saveAuthor(bookEntity, connection, authorEntity);
-        }
-        for (GenreEntity genreEntity : bookEntity.getGenreEntities()) {
-            saveGenre(bookEntity, connection, genreEntity);
-        }
+    /**
+     * Drops the cached book and the cached list pages that show it after its available or total amount changed,
+     * e.g. by taking, returning or losing it.
+     */
+    public void invalidateAvailability(int bookId) {
+        bookCache.invalidate(bookId);
+        pageCache.invalidatePagesOf(bookId);
+    }
+
+    /**
+     * Drops every cached book, list page and count after books were changed in bulk, e.g. by a catalog import.
+     */
+    public void invalidateAll() {
+        countStrategy.invalidate();
+        bookCache.invalidateAll();
+        pageCache.invalidateAll();
     }
 
-    private void removeAuthorsAndGenresFromBook(BookEntity bookEntity, Connection connection) throws SQLException {
-        authorBookDao.removeAuthorsFromBook(bookEntity.getId(), connection);
-        genreBookDao.removeGenresFromBook(bookEntity.getId(), connection);
+    /**
+     * Drops the cached list pages of the searches the changed books belonged or belong to.
+     */
+    private void invalidatePages(List<Integer> bookIds, List<BookEntity> versions) {
+        pageCache.invalidate(bookIds, versions,
+                (specification, book) -> specification.mightMatch(book, bookDao.isRankedByRelevance(specification)));
     }
 
-    private void saveAuthor(BookEntity bookEntity, Connection connection, AuthorEntity authorEntity) throws SQLException {
-        Optional<AuthorEntity> optionalAuthor = authorDao.getByName(authorEntity.getName());
-        if (optionalAuthor.isEmpty()) {
-            authorEntity = authorDao.create(authorEntity, connection);
-            authorBookDao.setAuthorToBook(authorEntity.getId(), bookEntity.getId(), connection);
-        } else {
-            authorBookDao.setAuthorToBook(optionalAuthor.get().getId(), bookEntity.getId(), connection);
+    /**
+     * The page query returns the total along with its rows, so it is only counted separately
+     * for an empty page that is not the first one, e.g. a stale link past the last book.
+     *
+     * @return the count, empty if the page or the count query failed, so that no count is cached for it
+     */
+    private Optional<BookCount> getBookCount(BookSpecification specification, BookPage bookPage, TotalCount totalCount,
+                                             boolean firstPage) {
+        if (bookPage.isFailed()) {
+            return Optional.empty();
         }
+        int total = bookPage.getBooks().isEmpty() && !firstPage
+                ? bookDao.getCountBySpecification(specification, totalCount)
+                : bookPage.getTotalBookAmount();
+        return total < 0 ? Optional.empty() : Optional.of(countStrategy.toBookCount(specification, totalCount, total));
     }
 
-    private void saveGenre(BookEntity bookEntity, Connection connection, GenreEntity genreEntity) throws SQLException {
-        Optional<GenreEntity> optionalGenre = genreDao.getByName(genreEntity.getName());
-        if (optionalGenre.isEmpty()) {
-            genreEntity = genreDao.create(genreEntity, connection);
-            genreBookDao.setGenreToBook(genreEntity.getId(), bookEntity.getId(), connection);
-        } else {
-            genreBookDao.setGenreToBook(optionalGenre.get().getId(), bookEntity.getId(), connection);
+    private BookPageDto toPage(BookSpecification specification, List<BookEntity> books, boolean hasPrevious, boolean hasNext,
+                               BookCount count) {
+        BookPageDto.BookPageDtoBuilder page = BookPageDto.builder()
+                .books(bookConverter.toDtos(books))
+                .totalBookAmount(count.getAmount())
+                .totalBookAmountLabel(count.getLabel())
+                .hasPrevious(hasPrevious)
+                .hasNext(hasNext);
+        if (!books.isEmpty() && !bookDao.isRankedByRelevance(specification)) {
+            page.previousCursor(hasPrevious ? PageCursor.previous(books.get(0).getId()) : null)
+                    .nextCursor(hasNext ? PageCursor.next(books.get(books.size() - 1).getId()) : null);
         }
+        return page.build();
     }
 
-    private void setAutoCommit(Connection connection, boolean autoCommit) {
+    /**
+     * Links the book to its authors and genres, resolving all their names to ids at once through the name
+     * dictionaries and creating the missing ones in the same transaction. Takes at most four statements
+     * whatever the number of authors and genres, and keeps the links that did not change.
+     */
+    private void saveAuthorsAndGenres(BookEntity bookEntity, Connection connection) throws SQLException {
+        Map<String, Integer> authorIds = authorDao.getOrCreateIds(
+                bookEntity.getAuthorEntities().stream().map(AuthorEntity::getName).collect(Collectors.toList()), connection);
+        for (AuthorEntity authorEntity : bookEntity.getAuthorEntities()) {
+            authorEntity.setId(authorIds.get(authorEntity.getName()));
+        }
+        authorBookDao.setAuthorsOfBook(bookEntity.getId(), authorIds.values(), connection);
+        Map<String, Integer> genreIds = genreDao.getOrCreateIds(
+                bookEntity.getGenreEntities().stream().map(GenreEntity::getName).collect(Collectors.toList()), connection);
+        for (GenreEntity genreEntity : bookEntity.getGenreEntities()) {
+            genreEntity.setId(genreIds.get(genreEntity.getName()));
+        }
+        genreBookDao.setGenresOfBook(bookEntity.getId(), genreIds.values(), connection);
+    }
+
+    /**
+     * Adds the authors and genres of a book saved in a committed transaction to the name dictionaries.
+     */
+    private void addToDictionaries(BookEntity bookEntity) {
+        authorDao.addCommittedIds(bookEntity.getAuthorEntities().stream()
+                .collect(Collectors.toMap(AuthorEntity::getName, AuthorEntity::getId, (first, second) -> first)));
+        genreDao.addCommittedIds(bookEntity.getGenreEntities().stream()
+                .collect(Collectors.toMap(GenreEntity::getName, GenreEntity::getId, (first, second) -> first)));
+    }
+
+    private static Properties loadApplicationProperties() {
+        Properties applicationProperties = new Properties();
         try {
-            connection.setAutoCommit(autoCommit);
-        } catch (SQLException e) {
-            log.error(e);
+            applicationProperties.load(BookService.class.getClassLoader().getResourceAsStream("application.properties"));
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        return applicationProperties;
     }
 
-    private void commit(Connection connection) {
+    private void setAutoCommit(Connection connection, boolean autoCommit) {
         try {
-            connection.commit();
+            connection.setAutoCommit(autoCommit);
         } catch (SQLException e) {
             log.error(e);
         }
@@ -140,11 +303,15 @@ public enum BookService {
     }
 
     public void delete(String[] ids) {
-        bookDao.delete(Arrays.stream(ids).map(Integer::parseInt).toArray(Integer[]::new));
-    }
-
-    public int getBookCountBySpecification(BookSpecification specification) {
-        return bookDao.getCountBySpecification(specification);
+        Integer[] bookIds = Arrays.stream(ids).map(Integer::parseInt).toArray(Integer[]::new);
+        // only needed to find the cached searches the books belonged to
+        List<BookEntity> deletedBooks = pageCache.isEnabled()
+                ? Arrays.stream(bookIds).map(bookCache::getEntity).flatMap(Optional::stream).collect(Collectors.toList())
+                : List.of();
+        bookDao.delete(bookIds);
+        countStrategy.invalidate();
+        Arrays.stream(bookIds).forEach(bookCache::invalidate);
+        invalidatePages(Arrays.asList(bookIds), deletedBooks);
     }
 
 }
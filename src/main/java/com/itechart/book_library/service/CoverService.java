@@ -0,0 +1,305 @@
+package com.itechart.book_library.service;
+
+import com.itechart.book_library.dao.api.BaseDao;
+import com.itechart.book_library.dao.api.BookDao;
+import com.itechart.book_library.dao.impl.BookDaoImpl;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import com.itechart.book_library.model.dto.CoverUpload;
+import com.itechart.book_library.model.entity.BookCoverEntity;
+import com.itechart.book_library.model.entity.BookEntity;
+import com.itechart.book_library.model.entity.CoverSize;
+import com.itechart.book_library.service.cover.CoverFileStore;
+import lombok.extern.log4j.Log4j;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stores and serves book covers and makes their downscaled JPEG renditions: a thumbnail for the book list
+ * and a medium one for the book page. Renditions are made on a small bounded worker pool after
+ * the upload is committed, so requests never wait for the resizing; until they are stored the
+ * original is served instead.
+ * <p>
+ * Covers are kept in the book row, or with {@code covers.storage=filesystem} in a {@link CoverFileStore},
+ * in which case the row only holds the SHA-256. Covers already stored as files are served either way.
+ */
+@Log4j
+public enum CoverService {
+    INSTANCE;
+
+    private static final String FILESYSTEM_STORAGE = "filesystem";
+
+    private final BookDao bookDao = BaseDao.getDao(BookDaoImpl.class);
+    private final MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+    private final CoverFileStore fileStore;
+    private final boolean storeFiles;
+    private final LongAdder renditionsCreated = metrics.counter("book_library_cover_renditions_total",
+            "Cover rendition jobs by result", "result=\"created\"");
+    private final LongAdder renditionsRejected = metrics.counter("book_library_cover_renditions_total",
+            "Cover rendition jobs by result", "result=\"rejected\"");
+    private final LongAdder renditionsFailed = metrics.counter("book_library_cover_renditions_total",
+            "Cover rendition jobs by result", "result=\"failed\"");
+    private final ThreadPoolExecutor resizer;
+    /**
+     * Books with a queued or running job, so a popular cover without renditions is resized once.
+     */
+    private final Set<Integer> pendingBookIds = ConcurrentHashMap.newKeySet();
+    /**
+     * Covers, by book id and cover version, whose renditions could not be made, so requesting one does not
+     * resize it again. A new upload changes the version and gets its renditions made.
+     */
+    private final Set<String> failedCovers;
+    private final int thumbnailWidth;
+    private final int thumbnailHeight;
+    private final int mediumWidth;
+    private final int mediumHeight;
+    private final float jpegQuality;
+
+    CoverService() {
+        Properties properties = new Properties();
+        try {
+            properties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        fileStore = CoverFileStore.create(properties);
+        storeFiles = FILESYSTEM_STORAGE.equals(properties.getProperty("covers.storage", "database"));
+        thumbnailWidth = Integer.parseInt(properties.getProperty("covers.thumbnail-width", "120"));
+        thumbnailHeight = Integer.parseInt(properties.getProperty("covers.thumbnail-height", "180"));
+        mediumWidth = Integer.parseInt(properties.getProperty("covers.medium-width", "400"));
+        mediumHeight = Integer.parseInt(properties.getProperty("covers.medium-height", "600"));
+        jpegQuality = Float.parseFloat(properties.getProperty("covers.jpeg-quality", "0.8"));
+        int threads = Integer.parseInt(properties.getProperty("covers.resize-threads", "2"));
+        int queueSize = Integer.parseInt(properties.getProperty("covers.resize-queue-size", "64"));
+        int failedCoversSize = Integer.parseInt(properties.getProperty("covers.failed-renditions-size", "1000"));
+        failedCovers = Collections.synchronizedSet(Collections.newSetFromMap(new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > failedCoversSize;
+            }
+        }));
+        resizer = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "cover-resizer");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        metrics.gauge("book_library_cover_resize_queue_size", "Cover rendition jobs waiting for a worker", "",
+                () -> resizer.getQueue().size());
+    }
+
+    /**
+     * Attaches an uploaded cover to the book about to be saved. If covers are stored as files it is streamed
+     * into the file store and the book gets its SHA-256; otherwise, or if the file cannot be written, the book
+     * gets a stream of it with its length, so the driver can stream it into the row.
+     *
+     * @return the stream to close once the book is saved, {@code null} if there is none
+     */
+    public InputStream prepare(BookEntity book, CoverUpload cover) throws IOException {
+        if (cover == null) {
+            return null;
+        }
+        if (storeFiles) {
+            try (InputStream content = cover.open()) {
+                book.setCoverSha256(fileStore.store(content));
+                return null;
+            } catch (IOException e) {
+                log.error("Cannot store cover as a file, keeping it in the book row ", e);
+            }
+        }
+        InputStream content = cover.open();
+        book.setCover(content, cover.getLength());
+        return content;
+    }
+
+    public Optional<BookCoverEntity> getCoverMetadata(int bookId, CoverSize size) {
+        return bookDao.getCoverMetadata(bookId, size).flatMap(cover -> resolveFile(cover, size));
+    }
+
+    /**
+     * Returns the cover in the given size, or the original if the rendition is not made yet,
+     * in which case it is scheduled again, e.g. for covers uploaded before renditions existed, unless making
+     * them failed for this cover before. A cover stored as a file is returned with its file instead of its content.
+     */
+    public Optional<BookCoverEntity> getCover(int bookId, CoverSize size) {
+        Optional<BookCoverEntity> cover = bookDao.getCover(bookId, size).flatMap(found -> resolveFile(found, size));
+        if (cover.isPresent() && cover.get().getSize() != size
+                && !failedCovers.contains(toFailedKey(bookId, cover.get().getVersion()))) {
+            scheduleRenditions(bookId, cover.get().getSha256());
+        }
+        return cover;
+    }
+
+    /**
+     * Queues making the renditions of a just stored cover, given its SHA-256 if it is stored as a file.
+     * The job reads the cover back from where it is stored, as the upload is gone by then. When the queue
+     * is full the job is dropped and the renditions are made the next time the cover is requested.
+     */
+    public void scheduleRenditions(int bookId, String sha256) {
+        if (!pendingBookIds.add(bookId)) {
+            return;
+        }
+        try {
+            resizer.execute(() -> {
+                try {
+                    makeRenditions(bookId, sha256);
+                } finally {
+                    pendingBookIds.remove(bookId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingBookIds.remove(bookId);
+            renditionsRejected.increment();
+            log.warn("Cover resize queue is full, skipped book " + bookId);
+        }
+    }
+
+    public void shutdown() {
+        resizer.shutdownNow();
+    }
+
+    /**
+     * Resolves the file of the requested rendition of a cover stored as a file, the original if the rendition
+     * is not stored yet.
+     */
+    private Optional<BookCoverEntity> resolveFile(BookCoverEntity cover, CoverSize size) {
+        if (cover.getSha256() == null) {
+            return Optional.of(cover);
+        }
+        CoverSize storedSize = Files.isRegularFile(fileStore.getPath(cover.getSha256(), size)) ? size : CoverSize.ORIGINAL;
+        Path file = fileStore.getPath(cover.getSha256(), storedSize);
+        try {
+            return Optional.of(BookCoverEntity.builder()
+                    .id(cover.getId())
+                    .version(cover.getVersion())
+                    .size(storedSize)
+                    .updatedAt(cover.getUpdatedAt())
+                    .length(Files.size(file))
+                    .sha256(cover.getSha256())
+                    .file(file)
+                    .build());
+        } catch (IOException e) {
+            log.error("Cannot read cover file of book " + cover.getId() + " ", e);
+            return Optional.empty();
+        }
+    }
+
+    private static String toFailedKey(int bookId, String version) {
+        return bookId + ":" + version;
+    }
+
+    private void makeRenditions(int bookId, String sha256) {
+        // a cover stored as a file has its SHA-256 as the version
+        String version = sha256;
+        try {
+            BookCoverEntity rowCover = null;
+            String fileSha256 = sha256;
+            if (fileSha256 == null) {
+                Optional<BookCoverEntity> cover = bookDao.getCover(bookId, CoverSize.ORIGINAL);
+                if (cover.isEmpty()) {
+                    return;
+                }
+                rowCover = cover.get();
+                fileSha256 = rowCover.getSha256();
+                version = rowCover.getVersion();
+            }
+            BufferedImage image = fileSha256 != null
+                    ? ImageIO.read(fileStore.getPath(fileSha256, CoverSize.ORIGINAL).toFile())
+                    : ImageIO.read(new ByteArrayInputStream(rowCover.getContent()));
+            if (image == null) {
+                renditionsFailed.increment();
+                failedCovers.add(toFailedKey(bookId, version));
+                log.warn("Cover of book " + bookId + " is not a readable image");
+                return;
+            }
+            byte[] thumbnail = toJpeg(scaleToFit(image, thumbnailWidth, thumbnailHeight));
+            byte[] medium = toJpeg(scaleToFit(image, mediumWidth, mediumHeight));
+            if (fileSha256 != null) {
+                // named by the content, so they can never be stale
+                fileStore.storeRendition(fileSha256, CoverSize.THUMBNAIL, thumbnail);
+                fileStore.storeRendition(fileSha256, CoverSize.MEDIUM, medium);
+                renditionsCreated.increment();
+            } else if (bookDao.updateCoverRenditions(bookId, rowCover.getVersion(), thumbnail, medium)) {
+                renditionsCreated.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            renditionsFailed.increment();
+            if (version != null) {
+                failedCovers.add(toFailedKey(bookId, version));
+            }
+            log.error("Cannot make cover renditions of book " + bookId + " ", e);
+        }
+    }
+
+    /**
+     * Scales the image down to fit the box, keeping its aspect ratio. Large reductions are done
+     * in halving steps, which keeps bilinear filtering from skipping pixels.
+     */
+    private static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min(1d, Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        BufferedImage current = image;
+        do {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            current = draw(current, width, height);
+        } while (current.getWidth() != targetWidth || current.getHeight() != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // JPEG has no transparency, so transparent PNG areas become white instead of black
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private byte[] toJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
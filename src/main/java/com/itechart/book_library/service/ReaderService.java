@@ -1,5 +1,6 @@
 package com.itechart.book_library.service;
 
+import com.itechart.book_library.connection.ConnectionLease;
 import com.itechart.book_library.connection.ConnectionPool;
 import com.itechart.book_library.dao.api.BaseDao;
 import com.itechart.book_library.dao.api.BookDao;
@@ -24,8 +25,11 @@ import java.sql.Date;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Log4j
 public enum ReaderService {
@@ -35,6 +39,7 @@ public enum ReaderService {
     private final ReaderDao readerDao = BaseDao.getDao(ReaderDaoImpl.class);
     private final RecordDao recordDao = BaseDao.getDao(RecordDaoImpl.class);
     private final BookDao bookDao = BaseDao.getDao(BookDaoImpl.class);
+    private final BookService bookService = BookService.INSTANCE;
 
     private final ReaderConverter readerConverter = new ReaderConverterImpl();
     private final RecordConverter recordConverter = new RecordConverterImpl();
@@ -42,32 +47,41 @@ public enum ReaderService {
     public void addRecords(String[] emails, String[] names, String[] periods, int bookId) {
         List<ReaderEntity> readerEntities = getReaderEntities(emails, names);
         List<RecordEntity> recordEntities = getRecordEntities(readerEntities, periods, bookId);
-        createReaderRecords(readerEntities, recordEntities);
+        createReaderRecords(bookId, recordEntities);
     }
 
+    /**
+     * Returns or writes off the borrowed copies in one transaction of two statements, whatever the number of records:
+     * the record statuses are set at once, then the amounts of each book change by the sum of its records. Records
+     * no longer borrowed, e.g. returned by a concurrent edit, are skipped and do not count.
+     */
     public void updateRecords(List<RecordDto> recordDtos) {
-        Connection connection = connectionPool.getConnection();
-        setAutoCommit(connection, false);
-        try {
-            for (RecordDto recordDto : recordDtos) {
-                updateRecord(recordDto, connection);
-            }
-            commit(connection);
-        } catch (SQLException e) {
-            rollback(connection);
-            log.error(e);
+        if (recordDtos.isEmpty()) {
+            return;
         }
-        setAutoCommit(connection, true);
-        connectionPool.returnToPool(connection);
-    }
-
-    private void updateRecord(RecordDto recordDto, Connection connection) throws SQLException {
-        if (recordDto.getStatus() == Status.RETURNED) {
-            bookDao.returnBook(recordDto.getBookId(), connection);
-        } else {
-            bookDao.loseBook(recordDto.getBookId(), connection);
+        List<RecordEntity> records = recordDtos.stream().map(recordConverter::toEntity).collect(Collectors.toList());
+        try (ConnectionLease connection = connectionPool.getConnection()) {
+            setAutoCommit(connection, false);
+            try {
+                List<RecordEntity> changed = recordDao.updateBorrowedStatuses(records, connection);
+                Map<Integer, Integer> returned = new HashMap<>();
+                Map<Integer, Integer> lost = new HashMap<>();
+                for (RecordEntity record : changed) {
+                    (record.getStatus() == Status.RETURNED ? returned : lost).merge(record.getBookId(), 1, Integer::sum);
+                }
+                if (!changed.isEmpty()) {
+                    bookDao.returnAndLoseBooks(returned, lost, connection);
+                }
+                connection.commit();
+                if (changed.size() < records.size()) {
+                    log.info((records.size() - changed.size()) + " records were no longer borrowed and were skipped");
+                }
+                changed.stream().map(RecordEntity::getBookId).distinct().forEach(bookService::invalidateAvailability);
+            } catch (SQLException e) {
+                rollback(connection);
+                log.error(e);
+            }
         }
-        recordDao.update(recordConverter.toEntity(recordDto), connection);
     }
 
     public List<RecordDto> getRecords(int bookId, boolean areRecordsActive) {
@@ -100,40 +114,34 @@ public enum ReaderService {
         return recordEntities;
     }
 
-    private void createReaderRecords(List<ReaderEntity> readerEntities, List<RecordEntity> recordEntities) {
-        Connection connection = connectionPool.getConnection();
-        setAutoCommit(connection, false);
-        for (int i = 0; i < readerEntities.size(); i++) {
-            try {
-                saveReaderRecord(readerEntities.get(i), recordEntities.get(i), connection);
-                commit(connection);
-            } catch (SQLException e) {
-                rollback(connection);
-                log.error(e);
-            }
+    /**
+     * Lends the book in one transaction of three statements, whatever the number of readers: the readers are upserted
+     * by email, the records of those not already holding the book are inserted and the available amount is decreased
+     * by their number. If fewer copies are available, nobody gets the book.
+     */
+    private void createReaderRecords(int bookId, List<RecordEntity> recordEntities) {
+        // a reader listed twice borrows once
+        Map<String, RecordEntity> recordsByEmail = new LinkedHashMap<>();
+        recordEntities.forEach(recordEntity -> recordsByEmail.putIfAbsent(recordEntity.getReader().getEmail(), recordEntity));
+        if (recordsByEmail.isEmpty()) {
+            return;
         }
-        setAutoCommit(connection, true);
-        connectionPool.returnToPool(connection);
-    }
-
-    private void saveReaderRecord(ReaderEntity readerEntity, RecordEntity recordEntity, Connection connection) throws SQLException {
-        Optional<ReaderEntity> readerByEmailOptional = readerDao.getByEmail(readerEntity.getEmail(), connection);
-        ReaderEntity newReaderEntity;
-        if (readerByEmailOptional.isEmpty()) {
-            newReaderEntity = readerDao.create(readerEntity, connection);
-        } else {
-            readerDao.update(readerEntity, connection);
-            newReaderEntity = readerByEmailOptional.get();
-        }
-        recordEntity.getReader().setId(newReaderEntity.getId());
-
-        if (readerDao.getByEmailInCurrentBook(newReaderEntity.getEmail(), recordEntity.getBookId(), connection).isEmpty()) {
-            recordDao.create(recordEntity, connection);
+        List<RecordEntity> records = new ArrayList<>(recordsByEmail.values());
+        try (ConnectionLease connection = connectionPool.getConnection()) {
+            setAutoCommit(connection, false);
             try {
-                bookDao.takeBook(recordEntity.getBookId(), connection);
+                readerDao.upsertAll(records.stream().map(RecordEntity::getReader).collect(Collectors.toList()), connection);
+                int created = recordDao.createForNonHolders(bookId, records, connection);
+                if (created > 0 && !bookDao.takeBooks(bookId, created, connection)) {
+                    rollback(connection);
+                    log.warn("No books available for " + created + " readers");
+                    return;
+                }
+                connection.commit();
+                bookService.invalidateAvailability(bookId);
             } catch (SQLException e) {
-                log.warn("No books available");
                 rollback(connection);
+                log.error(e);
             }
         }
     }
@@ -146,14 +154,6 @@ public enum ReaderService {
         }
     }
 
-    private void commit(Connection connection) {
-        try {
-            connection.commit();
-        } catch (SQLException e) {
-            log.error(e);
-        }
-    }
-
     private void rollback(Connection connection) {
         try {
             connection.rollback();
@@ -0,0 +1,149 @@
+package com.itechart.book_library.service.cache;
+
+import com.itechart.book_library.metrics.MetricsRegistry;
+import com.itechart.book_library.model.dto.BookDto;
+import com.itechart.book_library.model.entity.BookEntity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Read-through cache of books by id, holding both the entity and its DTO in an LRU map whose entries also expire
+ * after a time-to-live. Switched by {@code book-cache.enabled}. Entries hold the cover version, not the image:
+ * the image is a separate reference, loaded lazily through its versioned {@code /cover} URL.
+ * <p>
+ * Entries are dropped whenever the book changes, including its available and total amounts, and a generation
+ * number keeps a book read before a change from being cached after it.
+ */
+public class BookCache {
+
+    private final boolean enabled;
+    private final long timeToLive;
+    private final Map<Integer, CachedBook> books;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final IntFunction<Optional<BookEntity>> loader;
+    private final Function<BookEntity, BookDto> converter;
+
+    public BookCache(boolean enabled, int size, long timeToLive,
+                     IntFunction<Optional<BookEntity>> loader, Function<BookEntity, BookDto> converter) {
+        this.enabled = enabled;
+        this.loader = loader;
+        this.converter = converter;
+        this.timeToLive = timeToLive;
+        this.books = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedBook> eldest) {
+                return size() > size;
+            }
+        };
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        hits = metrics.counter("book_library_book_cache_requests_total", "Book by id cache lookups", "result=\"hit\"");
+        misses = metrics.counter("book_library_book_cache_requests_total", "Book by id cache lookups", "result=\"miss\"");
+        metrics.gauge("book_library_book_cache_size", "Cached books", "", () -> {
+            synchronized (books) {
+                return books.size();
+            }
+        });
+    }
+
+    public static BookCache create(Properties properties,
+                                   IntFunction<Optional<BookEntity>> loader, Function<BookEntity, BookDto> converter) {
+        return new BookCache(
+                Boolean.parseBoolean(properties.getProperty("book-cache.enabled", "false")),
+                Integer.parseInt(properties.getProperty("book-cache.size", "1000")),
+                Long.parseLong(properties.getProperty("book-cache.ttl", "300000")),
+                loader, converter);
+    }
+
+    /**
+     * Returns the cached book without loading it.
+     */
+    public Optional<BookEntity> getIfPresent(int id) {
+        return getCached(id).map(cachedBook -> cachedBook.entity);
+    }
+
+    public Optional<BookEntity> getEntity(int id) {
+        return get(id).map(cachedBook -> cachedBook.entity);
+    }
+
+    public Optional<BookDto> getDto(int id) {
+        return get(id).map(cachedBook -> cachedBook.dto);
+    }
+
+    public void invalidate(int id) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (books) {
+            generation.incrementAndGet();
+            books.remove(id);
+        }
+    }
+
+    public void invalidateAll() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (books) {
+            generation.incrementAndGet();
+            books.clear();
+        }
+    }
+
+    private Optional<CachedBook> get(int id) {
+        Optional<CachedBook> cachedBook = getCached(id);
+        if (cachedBook.isPresent()) {
+            hits.increment();
+            return cachedBook;
+        }
+        if (enabled) {
+            misses.increment();
+        }
+        long readGeneration = generation.get();
+        Optional<CachedBook> loadedBook = loader.apply(id)
+                .map(entity -> new CachedBook(entity, converter.apply(entity), System.currentTimeMillis()));
+        if (enabled && loadedBook.isPresent()) {
+            synchronized (books) {
+                if (generation.get() == readGeneration) {
+                    books.put(id, loadedBook.get());
+                }
+            }
+        }
+        return loadedBook;
+    }
+
+    private Optional<CachedBook> getCached(int id) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        CachedBook cachedBook;
+        synchronized (books) {
+            cachedBook = books.get(id);
+        }
+        if (cachedBook == null || System.currentTimeMillis() - cachedBook.cachedAt > timeToLive) {
+            return Optional.empty();
+        }
+        return Optional.of(cachedBook);
+    }
+
+    private static class CachedBook {
+
+        private final BookEntity entity;
+        private final BookDto dto;
+        private final long cachedAt;
+
+        private CachedBook(BookEntity entity, BookDto dto, long cachedAt) {
+            this.entity = entity;
+            this.dto = dto;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
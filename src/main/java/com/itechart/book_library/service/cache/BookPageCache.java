@@ -0,0 +1,198 @@
+package com.itechart.book_library.service.cache;
+
+import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import com.itechart.book_library.model.dto.BookDto;
+import com.itechart.book_library.model.dto.BookPageDto;
+import com.itechart.book_library.model.entity.BookEntity;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Caches book list pages by {@link BookSpecification#toNormalizedKey() normalized specification}, page and page size
+ * in an LRU map whose entries also expire after a time-to-live. Switched by {@code search-cache.enabled}.
+ * <p>
+ * A book change drops every cached page of each search the book belonged or now belongs to, as the change
+ * shifts the pages of the search and its total, and keeps the pages of the other searches. The searches are
+ * found by the ids on the cached pages and by matching the old and new versions of the book against the
+ * specifications. A generation number keeps a page read before a change from being cached after it.
+ */
+public class BookPageCache {
+
+    private final boolean enabled;
+    private final long timeToLive;
+    private final Map<String, CachedPage> pages;
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder invalidatedPages;
+
+    public BookPageCache(boolean enabled, int size, long timeToLive) {
+        this.enabled = enabled;
+        this.timeToLive = timeToLive;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+                return size() > size;
+            }
+        };
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        hits = metrics.counter("book_library_search_cache_requests_total", "Book list page cache lookups", "result=\"hit\"");
+        misses = metrics.counter("book_library_search_cache_requests_total", "Book list page cache lookups", "result=\"miss\"");
+        invalidatedPages = metrics.counter("book_library_search_cache_invalidated_pages_total",
+                "Cached book list pages dropped because a book changed", "");
+        metrics.gauge("book_library_search_cache_size", "Cached book list pages", "", () -> {
+            synchronized (pages) {
+                return pages.size();
+            }
+        });
+    }
+
+    public static BookPageCache create(Properties properties) {
+        return new BookPageCache(
+                Boolean.parseBoolean(properties.getProperty("search-cache.enabled", "false")),
+                Integer.parseInt(properties.getProperty("search-cache.size", "500")),
+                Long.parseLong(properties.getProperty("search-cache.ttl", "30000")));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Tells whether no page is cached, so a change cannot affect any cached search.
+     */
+    public boolean isEmpty() {
+        synchronized (pages) {
+            return pages.isEmpty();
+        }
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a page about to be read.
+     */
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param page the page number or cursor, in a form that tells them apart
+     */
+    public Optional<BookPageDto> get(BookSpecification specification, String page, int pageSize) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        CachedPage cachedPage;
+        synchronized (pages) {
+            cachedPage = pages.get(toKey(specification, page, pageSize));
+        }
+        if (cachedPage == null || System.currentTimeMillis() - cachedPage.cachedAt > timeToLive) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(cachedPage.page);
+    }
+
+    /**
+     * Caches the page unless a book changed since the given generation, as the page may predate the change.
+     */
+    public void put(BookSpecification specification, String page, int pageSize, BookPageDto bookPage, long readGeneration) {
+        if (!enabled) {
+            return;
+        }
+        CachedPage cachedPage = new CachedPage(specification, bookPage, System.currentTimeMillis());
+        synchronized (pages) {
+            if (generation.get() == readGeneration) {
+                pages.put(toKey(specification, page, pageSize), cachedPage);
+            }
+        }
+    }
+
+    /**
+     * Drops the pages of the searches the changed books belonged to or belong to now.
+     *
+     * @param bookIds  ids of the changed books
+     * @param versions the versions of the books before and after the change, as far as they are known
+     * @param matcher  tells whether a version of a book matches a specification
+     */
+    public void invalidate(Collection<Integer> bookIds, Collection<BookEntity> versions,
+                           BiPredicate<BookSpecification, BookEntity> matcher) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (pages) {
+            generation.incrementAndGet();
+            Set<String> affectedSearches = new HashSet<>();
+            for (CachedPage cachedPage : pages.values()) {
+                if (cachedPage.bookIds.stream().anyMatch(bookIds::contains)
+                        || versions.stream().anyMatch(version -> matcher.test(cachedPage.specification, version))) {
+                    affectedSearches.add(cachedPage.specification.toNormalizedKey());
+                }
+            }
+            removeIf(cachedPage -> affectedSearches.contains(cachedPage.specification.toNormalizedKey()));
+        }
+    }
+
+    /**
+     * Drops the pages that show the book, for changes that do not move it between searches, e.g. its available amount.
+     */
+    public void invalidatePagesOf(int bookId) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (pages) {
+            generation.incrementAndGet();
+            removeIf(cachedPage -> cachedPage.bookIds.contains(bookId));
+        }
+    }
+
+    /**
+     * Drops every page, for changes to too many books to match them against the cached searches, e.g. an import.
+     */
+    public void invalidateAll() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (pages) {
+            generation.incrementAndGet();
+            removeIf(cachedPage -> true);
+        }
+    }
+
+    private void removeIf(Predicate<CachedPage> predicate) {
+        int sizeBefore = pages.size();
+        pages.values().removeIf(predicate);
+        invalidatedPages.add(sizeBefore - pages.size());
+    }
+
+    private static String toKey(BookSpecification specification, String page, int pageSize) {
+        return specification.toNormalizedKey() + '\u0001' + page + '\u0001' + pageSize;
+    }
+
+    private static class CachedPage {
+
+        private final BookSpecification specification;
+        private final BookPageDto page;
+        private final Set<Integer> bookIds;
+        private final long cachedAt;
+
+        private CachedPage(BookSpecification specification, BookPageDto page, long cachedAt) {
+            this.specification = specification;
+            this.page = page;
+            this.bookIds = page.getBooks().stream().map(BookDto::getId).collect(Collectors.toSet());
+            this.cachedAt = cachedAt;
+        }
+    }
+}
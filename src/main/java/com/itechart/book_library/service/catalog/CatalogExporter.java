@@ -0,0 +1,100 @@
+package com.itechart.book_library.service.catalog;
+
+import com.itechart.book_library.dao.api.BaseDao;
+import com.itechart.book_library.dao.api.RowHandler;
+import com.itechart.book_library.dao.impl.ExportDaoImpl;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import lombok.extern.log4j.Log4j;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports the books or the borrow records as CSV or NDJSON, optionally gzip-compressed. Rows are read through
+ * a server-side cursor, {@code export.fetch-size} at a time, and written out as they are read, so at most one
+ * fetched batch is held in memory whatever the size of the table. The progress is logged every
+ * {@code export.progress-interval} rows.
+ */
+@Log4j
+public class CatalogExporter {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final ExportDaoImpl exportDao = BaseDao.getDao(ExportDaoImpl.class);
+    private final int fetchSize;
+    private final long progressInterval;
+    private final Map<ExportDataset, LongAdder> exportedRows = new EnumMap<>(ExportDataset.class);
+
+    public CatalogExporter(int fetchSize, long progressInterval) {
+        this.fetchSize = fetchSize;
+        this.progressInterval = progressInterval;
+        for (ExportDataset dataset : ExportDataset.values()) {
+            exportedRows.put(dataset, MetricsRegistry.INSTANCE.counter("book_library_export_rows_total",
+                    "Rows written by exports", "dataset=\"" + dataset.name().toLowerCase() + "\""));
+        }
+    }
+
+    public static CatalogExporter create(Properties applicationProperties) {
+        return new CatalogExporter(
+                Integer.parseInt(applicationProperties.getProperty("export.fetch-size", "1000")),
+                Long.parseLong(applicationProperties.getProperty("export.progress-interval", "100000")));
+    }
+
+    /**
+     * Writes the dataset to the stream, which is flushed but left open.
+     */
+    public ExportProgress export(ExportDataset dataset, CatalogFormat format, boolean gzip, OutputStream output)
+            throws IOException, SQLException {
+        ExportProgress progress = new ExportProgress(dataset);
+        CountingOutputStream counting = new CountingOutputStream(output);
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(counting, BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(gzip ? compressed : counting, StandardCharsets.UTF_8), BUFFER_SIZE);
+        RowHandler rowWriter = format == CatalogFormat.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer);
+        LongAdder rowCounter = exportedRows.get(dataset);
+
+        RowHandler handler = new RowHandler() {
+            private long rows;
+
+            @Override
+            public void start(List<String> columns) throws IOException {
+                rowWriter.start(columns);
+            }
+
+            @Override
+            public void row(Object[] values) throws IOException {
+                rowWriter.row(values);
+                rowCounter.increment();
+                if (++rows % progressInterval == 0) {
+                    progress.update(rows, counting.getByteCount());
+                    log.info(progress);
+                }
+            }
+        };
+        long rows = dataset == ExportDataset.BOOKS
+                ? exportDao.streamBooks(fetchSize, handler)
+                : exportDao.streamRecords(fetchSize, handler);
+
+        writer.flush();
+        if (compressed != null) {
+            compressed.finish();
+        }
+        counting.flush();
+        progress.update(rows, counting.getByteCount());
+        progress.finish();
+        log.info(progress);
+        return progress;
+    }
+}
@@ -0,0 +1,39 @@
+package com.itechart.book_library.service.catalog;
+
+import java.util.Locale;
+import java.util.Optional;
+
+public enum CatalogFormat {
+    CSV,
+    NDJSON;
+
+    /**
+     * Tells the format by the extension of the file name, ignoring a trailing {@code .gz}.
+     */
+    public static Optional<CatalogFormat> fromFileName(String fileName) {
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+        }
+        if (name.endsWith(".csv")) {
+            return Optional.of(CSV);
+        }
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+            return Optional.of(NDJSON);
+        }
+        return Optional.empty();
+    }
+
+    public static boolean isGzipped(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    public static Optional<CatalogFormat> fromParameter(String parameter) {
+        for (CatalogFormat format : values()) {
+            if (format.name().equalsIgnoreCase(parameter)) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,275 @@
+package com.itechart.book_library.service.catalog;
+
+import com.itechart.book_library.connection.ConnectionLease;
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.dao.api.BaseDao;
+import com.itechart.book_library.dao.impl.BookImportDaoImpl;
+import com.itechart.book_library.dao.impl.BookImportDaoImpl.MergeCounts;
+import com.itechart.book_library.metrics.MetricsRegistry;
+import com.itechart.book_library.service.cover.CoverFileStore;
+import com.itechart.book_library.util.validator.CoverValidator;
+import lombok.extern.log4j.Log4j;
+import org.apache.commons.io.input.CountingInputStream;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Imports a catalog file in batches of {@code import.batch-size} books. Each batch is streamed into a staging
+ * table with {@code COPY} and merged into the catalog with set-based statements in its own transaction, so memory
+ * stays constant whatever the size of the file, and a failed import keeps the batches committed before it.
+ * Books are matched by ISBN, so importing a file again updates the books instead of duplicating them.
+ * <p>
+ * Covers are read from {@code import.cover-directory}, validated like uploaded ones and stored like them:
+ * as files when {@code covers.storage=filesystem}, otherwise in the rows. Their renditions are not scheduled,
+ * {@code /cover} builds them on the first request. Invalid books are skipped and counted as rejected.
+ */
+@Log4j
+public class CatalogImporter {
+
+    private static final int LOGGED_REJECTIONS = 100;
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    private final ConnectionPool connectionPool;
+    private final BookImportDaoImpl importDao = BaseDao.getDao(BookImportDaoImpl.class);
+    private final CoverValidator coverValidator = CoverValidator.INSTANCE;
+    /**
+     * {@code null} if covers are stored in the rows.
+     */
+    private final CoverFileStore fileStore;
+    private final Path coverDirectory;
+    private final int batchSize;
+    private final LongAdder createdRows;
+    private final LongAdder updatedRows;
+    private final LongAdder duplicateRows;
+    private final LongAdder rejectedRows;
+
+    public CatalogImporter(ConnectionPool connectionPool, CoverFileStore fileStore, Path coverDirectory, int batchSize) {
+        this.connectionPool = connectionPool;
+        this.fileStore = fileStore;
+        this.coverDirectory = coverDirectory;
+        this.batchSize = batchSize;
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        String help = "Books read by catalog imports";
+        createdRows = metrics.counter("book_library_import_books_total", help, "result=\"created\"");
+        updatedRows = metrics.counter("book_library_import_books_total", help, "result=\"updated\"");
+        duplicateRows = metrics.counter("book_library_import_books_total", help, "result=\"duplicate\"");
+        rejectedRows = metrics.counter("book_library_import_books_total", help, "result=\"rejected\"");
+    }
+
+    public static CatalogImporter create(Properties applicationProperties, ConnectionPool connectionPool) {
+        boolean storeFiles = "filesystem".equals(applicationProperties.getProperty("covers.storage", "database"));
+        return new CatalogImporter(connectionPool,
+                storeFiles ? CoverFileStore.create(applicationProperties) : null,
+                Paths.get(applicationProperties.getProperty("import.cover-directory", "import")).toAbsolutePath().normalize(),
+                Integer.parseInt(applicationProperties.getProperty("import.batch-size", "10000")));
+    }
+
+    /**
+     * Imports the catalog read from the stream, reporting the progress after every committed batch.
+     *
+     * @param gzipped  whether the stream is gzip-compressed
+     * @param listener told the progress after every batch and once more when the import is finished
+     * @return the final progress
+     */
+    public ImportProgress importCatalog(InputStream input, CatalogFormat format, boolean gzipped,
+                                        Consumer<ImportProgress> listener) throws IOException, SQLException {
+        ImportProgress progress = new ImportProgress();
+        CountingInputStream counting = new CountingInputStream(input);
+        try (CatalogReader reader = CatalogReader.open(format, gzipped ? new GZIPInputStream(counting) : counting)) {
+            boolean more = true;
+            while (more) {
+                more = importBatch(reader, progress, counting);
+                log.info(progress);
+                listener.accept(progress);
+            }
+        }
+        progress.finish();
+        log.info(progress);
+        listener.accept(progress);
+        return progress;
+    }
+
+    /**
+     * @return whether the file has more books
+     */
+    private boolean importBatch(CatalogReader reader, ImportProgress progress, CountingInputStream counting)
+            throws IOException, SQLException {
+        try (ConnectionLease connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                importDao.createStagingTable(connection);
+                int rows = 0;
+                boolean more = true;
+                PGCopyOutputStream copy = importDao.copyIntoStagingTable(connection);
+                try {
+                    Writer writer = new OutputStreamWriter(copy, StandardCharsets.UTF_8);
+                    while (rows < batchSize && (more = copyNext(reader, writer, progress))) {
+                        rows++;
+                    }
+                    writer.flush();
+                    copy.endCopy();
+                } finally {
+                    if (copy.isActive()) {
+                        copy.cancelCopy();
+                    }
+                }
+                MergeCounts counts = importDao.merge(connection);
+                connection.commit();
+                progress.addBatch(rows, counts.getCreated(), counts.getUpdated(), counts.getDuplicates(),
+                        counting.getByteCount());
+                createdRows.add(counts.getCreated());
+                updatedRows.add(counts.getUpdated());
+                duplicateRows.add(counts.getDuplicates());
+                return more;
+            } catch (SQLException | IOException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Copies the next valid book into the staging table, skipping the invalid ones.
+     *
+     * @return {@code false} at the end of the file
+     */
+    private boolean copyNext(CatalogReader reader, Writer writer, ImportProgress progress) throws IOException {
+        while (true) {
+            try {
+                CatalogRecord record = reader.next();
+                if (record == null) {
+                    return false;
+                }
+                Path cover = resolveCover(record);
+                String coverSha256 = cover != null && fileStore != null ? storeCover(cover) : null;
+                writeRow(writer, record, fileStore == null ? cover : null, coverSha256);
+                return true;
+            } catch (InvalidRecordException e) {
+                progress.reject();
+                rejectedRows.increment();
+                if (progress.getRejected() <= LOGGED_REJECTIONS) {
+                    log.warn("Book skipped: " + e.getMessage());
+                } else if (progress.getRejected() == LOGGED_REJECTIONS + 1) {
+                    log.warn("Further skipped books are only counted");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the valid cover image of the book, {@code null} if it has none
+     */
+    private Path resolveCover(CatalogRecord record) throws InvalidRecordException {
+        if (record.getCoverPath() == null) {
+            return null;
+        }
+        Path cover = coverDirectory.resolve(record.getCoverPath()).normalize();
+        if (!cover.startsWith(coverDirectory) || !Files.isRegularFile(cover)) {
+            throw new InvalidRecordException(record.getLine(), "no cover file " + record.getCoverPath());
+        }
+        boolean valid;
+        try (InputStream content = Files.newInputStream(cover)) {
+            valid = coverValidator.isValid(Files.size(cover), content);
+        } catch (IOException e) {
+            throw new InvalidRecordException(record.getLine(), "cannot read cover file " + record.getCoverPath());
+        }
+        if (!valid) {
+            throw new InvalidRecordException(record.getLine(), "cover is not a JPEG or PNG of an allowed size");
+        }
+        return cover;
+    }
+
+    private String storeCover(Path cover) throws IOException {
+        try (InputStream content = Files.newInputStream(cover)) {
+            return fileStore.store(content);
+        }
+    }
+
+    /**
+     * Writes the book as a line of the {@code COPY} text format.
+     *
+     * @param cover       image to copy into the row, {@code null} if none or stored as a file
+     * @param coverSha256 name of the image stored as a file
+     */
+    static void writeRow(Writer writer, CatalogRecord record, Path cover, String coverSha256) throws IOException {
+        writer.write(Long.toString(record.getLine()));
+        writeField(writer, record.getTitle());
+        writeField(writer, toArrayLiteral(record.getAuthors()));
+        writeField(writer, toArrayLiteral(record.getGenres()));
+        writeField(writer, record.getPublisher());
+        writeField(writer, record.getPublishDate().toString());
+        writeField(writer, record.getPageCount() == null ? null : record.getPageCount().toString());
+        writeField(writer, record.getIsbn());
+        writeField(writer, record.getDescription());
+        writeField(writer, Integer.toString(record.getTotalAmount()));
+        writer.write('\t');
+        if (cover == null) {
+            writer.write("\\N");
+        } else {
+            writeBytea(writer, cover);
+        }
+        writeField(writer, coverSha256);
+        writer.write('\n');
+    }
+
+    private static void writeField(Writer writer, String value) throws IOException {
+        writer.write('\t');
+        if (value == null) {
+            writer.write("\\N");
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> writer.write("\\\\");
+                case '\t' -> writer.write("\\t");
+                case '\n' -> writer.write("\\n");
+                case '\r' -> writer.write("\\r");
+                default -> writer.write(c);
+            }
+        }
+    }
+
+    /**
+     * Streams the image as a hex bytea literal, its backslash escaped for {@code COPY}.
+     */
+    private static void writeBytea(Writer writer, Path cover) throws IOException {
+        writer.write("\\\\x");
+        HexFormat hex = HexFormat.of();
+        byte[] chunk = new byte[COPY_CHUNK_SIZE];
+        try (InputStream content = Files.newInputStream(cover)) {
+            int read;
+            while ((read = content.read(chunk)) > 0) {
+                writer.write(hex.formatHex(chunk, 0, read));
+            }
+        }
+    }
+
+    private static String toArrayLiteral(List<String> elements) {
+        StringBuilder literal = new StringBuilder("{");
+        for (String element : elements) {
+            if (literal.length() > 1) {
+                literal.append(',');
+            }
+            literal.append('"').append(element.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return literal.append('}').toString();
+    }
+}
@@ -0,0 +1,141 @@
+package com.itechart.book_library.service.catalog;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the books of a catalog file one at a time, so a file of any size is read in constant memory.
+ * Both formats have the fields {@code title}, {@code authors}, {@code genres}, {@code publisher},
+ * {@code publish_date} (ISO {@code yyyy-MM-dd}), {@code isbn}, {@code total_amount} and the optional
+ * {@code page_count}, {@code description} and {@code cover}, a path relative to {@code import.cover-directory}.
+ * Authors and genres are separated by semicolons, or given as JSON arrays in NDJSON.
+ */
+public abstract class CatalogReader implements Closeable {
+
+    public static final String LIST_SEPARATOR = ";";
+
+    protected final BufferedReader reader;
+
+    protected CatalogReader(InputStream input) {
+        this.reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+    }
+
+    public static CatalogReader open(CatalogFormat format, InputStream input) {
+        return format == CatalogFormat.CSV ? new CsvCatalogReader(input) : new NdjsonCatalogReader(input);
+    }
+
+    /**
+     * @return the next book, {@code null} at the end of the file
+     * @throws InvalidRecordException if the next book cannot be imported; reading may go on with the one after
+     */
+    public abstract CatalogRecord next() throws IOException, InvalidRecordException;
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * @param fields field values by name, each a {@code String}, a {@code List<String>} or {@code null}
+     */
+    protected static CatalogRecord toRecord(long line, Map<String, Object> fields) throws InvalidRecordException {
+        String totalAmount = getRequired(line, fields, "total_amount");
+        String pageCount = getText(line, fields, "page_count");
+        String description = getText(line, fields, "description");
+        return CatalogRecord.builder()
+                .line(line)
+                .title(getRequired(line, fields, "title"))
+                .authors(getList(line, fields, "authors"))
+                .genres(getList(line, fields, "genres"))
+                .publisher(getRequired(line, fields, "publisher"))
+                .publishDate(parseDate(line, getRequired(line, fields, "publish_date")))
+                .pageCount(pageCount == null ? null : parseAmount(line, "page_count", pageCount))
+                .isbn(getRequired(line, fields, "isbn"))
+                .description(description == null ? "" : description)
+                .totalAmount(parseAmount(line, "total_amount", totalAmount))
+                .coverPath(getText(line, fields, "cover"))
+                .build();
+    }
+
+    private static String getRequired(long line, Map<String, Object> fields, String name) throws InvalidRecordException {
+        String value = getText(line, fields, name);
+        if (value == null) {
+            throw new InvalidRecordException(line, "no " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the trimmed value of a text field, {@code null} if it is missing or blank.
+     */
+    private static String getText(long line, Map<String, Object> fields, String name) throws InvalidRecordException {
+        Object value = fields.get(name);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof String)) {
+            throw new InvalidRecordException(line, name + " is not a text");
+        }
+        return normalize(line, name, (String) value);
+    }
+
+    private static List<String> getList(long line, Map<String, Object> fields, String name) throws InvalidRecordException {
+        Object value = fields.get(name);
+        List<?> elements = value instanceof String
+                ? List.of(((String) value).split(LIST_SEPARATOR))
+                : value instanceof List ? (List<?>) value : Collections.emptyList();
+        List<String> names = new ArrayList<>();
+        for (Object element : elements) {
+            if (!(element instanceof String)) {
+                throw new InvalidRecordException(line, name + " are not texts");
+            }
+            String elementName = normalize(line, name, (String) element);
+            if (elementName != null && !names.contains(elementName)) {
+                names.add(elementName);
+            }
+        }
+        if (names.isEmpty()) {
+            throw new InvalidRecordException(line, "no " + name);
+        }
+        return names;
+    }
+
+    private static String normalize(long line, String name, String value) throws InvalidRecordException {
+        // PostgreSQL text cannot hold it, and it would fail the whole batch
+        if (value.indexOf('\0') >= 0) {
+            throw new InvalidRecordException(line, name + " contains a NUL character");
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    private static LocalDate parseDate(long line, String value) throws InvalidRecordException {
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new InvalidRecordException(line, "publish_date is not a yyyy-MM-dd date: " + value);
+        }
+    }
+
+    private static int parseAmount(long line, String name, String value) throws InvalidRecordException {
+        try {
+            int amount = Integer.parseInt(value);
+            if (amount >= 0) {
+                return amount;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new InvalidRecordException(line, name + " is not a non-negative integer: " + value);
+    }
+}
@@ -0,0 +1,36 @@
+package com.itechart.book_library.service.catalog;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * A book read from a catalog file, before it is imported.
+ */
+@Builder
+@Getter
+public class CatalogRecord {
+
+    /**
+     * Line of the file the record starts on.
+     */
+    private final long line;
+    private final String title;
+    private final List<String> authors;
+    private final List<String> genres;
+    private final String publisher;
+    private final LocalDate publishDate;
+    /**
+     * {@code null} if the catalog does not tell.
+     */
+    private final Integer pageCount;
+    private final String isbn;
+    private final String description;
+    private final int totalAmount;
+    /**
+     * Path of the cover image relative to {@code import.cover-directory}, {@code null} if the book has none.
+     */
+    private final String coverPath;
+}
@@ -0,0 +1,99 @@
+package com.itechart.book_library.service.catalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads RFC 4180 CSV with a header line naming the fields. Quoted fields may hold commas, line breaks and
+ * doubled quotes; unknown columns are ignored.
+ */
+class CsvCatalogReader extends CatalogReader {
+
+    private static final int END = -1;
+
+    private List<String> header;
+    private long line = 1;
+
+    CsvCatalogReader(InputStream input) {
+        super(input);
+    }
+
+    @Override
+    public CatalogRecord next() throws IOException, InvalidRecordException {
+        if (header == null) {
+            List<String> names = readRow();
+            if (names == null) {
+                return null;
+            }
+            header = new ArrayList<>();
+            for (String name : names) {
+                header.add(name.replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        List<String> row;
+        long rowLine;
+        do {
+            rowLine = line;
+            row = readRow();
+            if (row == null) {
+                return null;
+            }
+        } while (row.size() == 1 && row.get(0).isEmpty());
+        if (row.size() != header.size()) {
+            throw new InvalidRecordException(rowLine, row.size() + " fields instead of " + header.size());
+        }
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            fields.put(header.get(i), row.get(i));
+        }
+        return toRecord(rowLine, fields);
+    }
+
+    /**
+     * @return the fields of the next row, {@code null} at the end of the file
+     */
+    private List<String> readRow() throws IOException, InvalidRecordException {
+        int c = reader.read();
+        if (c == END) {
+            return null;
+        }
+        long rowLine = line;
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == END) {
+                    throw new InvalidRecordException(rowLine, "unterminated quoted field");
+                }
+                if (c == '"') {
+                    c = reader.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                } else if (c == '\n') {
+                    line++;
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == END) {
+                line++;
+                row.add(field.toString());
+                return row;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.itechart.book_library.service.catalog;
+
+import com.itechart.book_library.dao.api.RowHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Writes rows as RFC 4180 CSV with a header line, quoting only the fields that need it.
+ * Arrays are joined with {@link CatalogReader#LIST_SEPARATOR}, as the catalog import reads them.
+ */
+class CsvRowWriter implements RowHandler {
+
+    private final Writer writer;
+
+    CsvRowWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void start(List<String> columns) throws IOException {
+        writeLine(columns.toArray());
+    }
+
+    @Override
+    public void row(Object[] values) throws IOException {
+        writeLine(values);
+    }
+
+    private void writeLine(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeField(values[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    private void writeField(Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        String text = value instanceof List
+                ? ((List<?>) value).stream().map(String::valueOf).collect(Collectors.joining(CatalogReader.LIST_SEPARATOR))
+                : value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
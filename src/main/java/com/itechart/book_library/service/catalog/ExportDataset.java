@@ -0,0 +1,27 @@
+package com.itechart.book_library.service.catalog;
+
+import java.util.Optional;
+
+public enum ExportDataset {
+    /**
+     * Every book with its authors and genres, in the format of the catalog import.
+     */
+    BOOKS,
+    /**
+     * Every borrow record with its book and reader.
+     */
+    RECORDS;
+
+    public static Optional<ExportDataset> fromParameter(String parameter) {
+        for (ExportDataset dataset : values()) {
+            if (dataset.name().equalsIgnoreCase(parameter)) {
+                return Optional.of(dataset);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public String getFileName(CatalogFormat format, boolean gzip) {
+        return name().toLowerCase() + (format == CatalogFormat.CSV ? ".csv" : ".ndjson") + (gzip ? ".gz" : "");
+    }
+}
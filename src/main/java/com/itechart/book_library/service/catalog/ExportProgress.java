@@ -0,0 +1,43 @@
+package com.itechart.book_library.service.catalog;
+
+import lombok.Getter;
+
+/**
+ * Counts of a running export.
+ */
+@Getter
+public class ExportProgress {
+
+    private final ExportDataset dataset;
+    private final long startedAt = System.nanoTime();
+    private long rows;
+    private long bytesWritten;
+    private boolean finished;
+
+    ExportProgress(ExportDataset dataset) {
+        this.dataset = dataset;
+    }
+
+    void update(long rows, long bytesWritten) {
+        this.rows = rows;
+        this.bytesWritten = bytesWritten;
+    }
+
+    void finish() {
+        finished = true;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startedAt) / 1_000_000;
+    }
+
+    public long getRowsPerSecond() {
+        return rows * 1000 / Math.max(getElapsedMillis(), 1);
+    }
+
+    @Override
+    public String toString() {
+        return (finished ? "Exported " : "Exporting ") + dataset.name().toLowerCase() + ", " + rows + " rows, "
+                + bytesWritten / 1024 + " KiB in " + getElapsedMillis() + " ms, " + getRowsPerSecond() + " rows/s";
+    }
+}
@@ -0,0 +1,54 @@
+package com.itechart.book_library.service.catalog;
+
+import lombok.Getter;
+
+/**
+ * Counts of a running catalog import. Books read are counted once their batch is committed, rejected ones
+ * as soon as they are read.
+ */
+@Getter
+public class ImportProgress {
+
+    private final long startedAt = System.nanoTime();
+    private long read;
+    private long created;
+    private long updated;
+    private long duplicates;
+    private long rejected;
+    private long bytesRead;
+    private boolean finished;
+
+    void addBatch(int read, int created, int updated, int duplicates, long bytesRead) {
+        this.read += read;
+        this.created += created;
+        this.updated += updated;
+        this.duplicates += duplicates;
+        this.bytesRead = bytesRead;
+    }
+
+    void reject() {
+        rejected++;
+    }
+
+    void finish() {
+        finished = true;
+    }
+
+    public long getElapsedMillis() {
+        return (System.nanoTime() - startedAt) / 1_000_000;
+    }
+
+    /**
+     * Books read and merged per second, rejected books left out.
+     */
+    public long getRowsPerSecond() {
+        return read * 1000 / Math.max(getElapsedMillis(), 1);
+    }
+
+    @Override
+    public String toString() {
+        return (finished ? "Imported " : "Importing, ") + read + " books read, " + created + " created, "
+                + updated + " updated, " + duplicates + " duplicates, " + rejected + " rejected, "
+                + bytesRead / 1024 + " KiB in " + getElapsedMillis() + " ms, " + getRowsPerSecond() + " books/s";
+    }
+}
@@ -0,0 +1,20 @@
+package com.itechart.book_library.service.catalog;
+
+/**
+ * Thrown for a catalog record that cannot be imported. The reader is left at the next record.
+ */
+public class InvalidRecordException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long line;
+
+    public InvalidRecordException(long line, String message) {
+        super("Line " + line + ": " + message);
+        this.line = line;
+    }
+
+    public long getLine() {
+        return line;
+    }
+}
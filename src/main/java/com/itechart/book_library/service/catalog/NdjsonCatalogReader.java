@@ -0,0 +1,167 @@
+package com.itechart.book_library.service.catalog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads newline-delimited JSON, one flat object per line. Values are strings, numbers, booleans, {@code null}
+ * or arrays of those; numbers are kept as their text. Blank lines are skipped.
+ */
+class NdjsonCatalogReader extends CatalogReader {
+
+    private long line;
+
+    NdjsonCatalogReader(InputStream input) {
+        super(input);
+    }
+
+    @Override
+    public CatalogRecord next() throws IOException, InvalidRecordException {
+        String text;
+        do {
+            text = reader.readLine();
+            line++;
+            if (text == null) {
+                return null;
+            }
+        } while (text.isBlank());
+        return toRecord(line, new ObjectParser(line, text).parseObject());
+    }
+
+    private static class ObjectParser {
+
+        private final long line;
+        private final String text;
+        private int position;
+
+        private ObjectParser(long line, String text) {
+            this.line = line;
+            this.text = text;
+        }
+
+        private Map<String, Object> parseObject() throws InvalidRecordException {
+            Map<String, Object> fields = new HashMap<>();
+            expect('{');
+            if (!tryConsume('}')) {
+                do {
+                    String name = parseString();
+                    expect(':');
+                    fields.put(name, parseValue(true));
+                } while (tryConsume(','));
+                expect('}');
+            }
+            skipWhitespace();
+            if (position < text.length()) {
+                throw error("unexpected text after the object");
+            }
+            return fields;
+        }
+
+        private Object parseValue(boolean arrayAllowed) throws InvalidRecordException {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw error("value expected");
+            }
+            char c = text.charAt(position);
+            if (c == '"') {
+                return parseString();
+            }
+            if (c == '[' && arrayAllowed) {
+                position++;
+                List<Object> elements = new ArrayList<>();
+                if (!tryConsume(']')) {
+                    do {
+                        elements.add(parseValue(false));
+                    } while (tryConsume(','));
+                    expect(']');
+                }
+                return elements;
+            }
+            int start = position;
+            while (position < text.length() && "+-.eE0123456789truefalsn".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            String literal = text.substring(start, position);
+            switch (literal) {
+                case "null":
+                    return null;
+                case "true":
+                case "false":
+                    return Boolean.valueOf(literal);
+                default:
+                    if (literal.matches("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?")) {
+                        return literal;
+                    }
+                    throw error("unsupported value");
+            }
+        }
+
+        private String parseString() throws InvalidRecordException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw error("truncated unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("invalid unicode escape");
+                        }
+                        position += 4;
+                    }
+                    default -> value.append(escaped);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private void expect(char expected) throws InvalidRecordException {
+            if (!tryConsume(expected)) {
+                throw error("'" + expected + "' expected");
+            }
+        }
+
+        private boolean tryConsume(char expected) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == expected) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private InvalidRecordException error(String message) {
+            return new InvalidRecordException(line, message + " at column " + (position + 1));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.itechart.book_library.service.catalog;
+
+import com.itechart.book_library.dao.api.RowHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes rows as newline-delimited JSON, one object per row keyed by the column names.
+ */
+class NdjsonRowWriter implements RowHandler {
+
+    private final Writer writer;
+    private String[] keys;
+
+    NdjsonRowWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void start(List<String> columns) {
+        keys = new String[columns.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = toJsonString(columns.get(i)) + ':';
+        }
+    }
+
+    @Override
+    public void row(Object[] values) throws IOException {
+        writer.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(keys[i]);
+            writeValue(values[i]);
+        }
+        writer.write("}\n");
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null || value instanceof Number || value instanceof Boolean) {
+            writer.write(String.valueOf(value));
+        } else if (value instanceof List) {
+            writer.write('[');
+            List<?> elements = (List<?>) value;
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeValue(elements.get(i));
+            }
+            writer.write(']');
+        } else {
+            writer.write(toJsonString(value.toString()));
+        }
+    }
+
+    private static String toJsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
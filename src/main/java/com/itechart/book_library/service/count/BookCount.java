@@ -0,0 +1,28 @@
+package com.itechart.book_library.service.count;
+
+import lombok.Getter;
+
+/**
+ * Number of books matching a search as shown to the user.
+ */
+@Getter
+public class BookCount {
+
+    private final int amount;
+    /**
+     * Whether counting stopped at {@link #amount} and there are more books.
+     */
+    private final boolean capped;
+
+    public BookCount(int amount, boolean capped) {
+        this.amount = amount;
+        this.capped = capped;
+    }
+
+    /**
+     * Returns the amount as shown to the user, e.g. {@code "1000+"} for a capped count.
+     */
+    public String getLabel() {
+        return capped ? amount + "+" : String.valueOf(amount);
+    }
+}
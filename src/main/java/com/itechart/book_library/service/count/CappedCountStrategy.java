@@ -0,0 +1,27 @@
+package com.itechart.book_library.service.count;
+
+import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.TotalCount;
+
+/**
+ * Stops counting after {@code cap} books and reports e.g. "1000+", so broad searches do not scan
+ * every match just to draw the page links.
+ */
+public class CappedCountStrategy implements CountStrategy {
+
+    private final int cap;
+
+    public CappedCountStrategy(int cap) {
+        this.cap = cap;
+    }
+
+    @Override
+    public TotalCount getTotalCount(BookSpecification specification) {
+        return TotalCount.capped(cap);
+    }
+
+    @Override
+    public BookCount toBookCount(BookSpecification specification, TotalCount totalCount, int total) {
+        return total > cap ? new BookCount(cap, true) : new BookCount(total, false);
+    }
+}
@@ -0,0 +1,48 @@
+package com.itechart.book_library.service.count;
+
+import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.TotalCount;
+
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Decides how the book list counts the books matching a search, which only serves to draw the page links.
+ * Chosen by {@code count.strategy} in application.properties: {@code exact}, {@code estimated} or {@code capped}.
+ */
+public interface CountStrategy {
+
+    /**
+     * Returns the count if it is known without querying the database.
+     */
+    default Optional<BookCount> getCached(BookSpecification specification) {
+        return Optional.empty();
+    }
+
+    /**
+     * Returns how the page query has to compute the total for the specification.
+     */
+    TotalCount getTotalCount(BookSpecification specification);
+
+    /**
+     * Turns the total computed by the page query into the count shown to the user.
+     */
+    BookCount toBookCount(BookSpecification specification, TotalCount totalCount, int total);
+
+    /**
+     * Called after books are created, updated or deleted.
+     */
+    default void invalidate() {
+    }
+
+    static CountStrategy create(Properties properties) {
+        ExactCountStrategy exactCountStrategy = new ExactCountStrategy(
+                Integer.parseInt(properties.getProperty("count.cache-size", "1000")),
+                Long.parseLong(properties.getProperty("count.cache-ttl", "60000")));
+        return switch (properties.getProperty("count.strategy", "exact")) {
+            case "estimated" -> new EstimatedCountStrategy(exactCountStrategy);
+            case "capped" -> new CappedCountStrategy(Integer.parseInt(properties.getProperty("count.cap", "1000")));
+            default -> exactCountStrategy;
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package com.itechart.book_library.service.count;
+
+import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.TotalCount;
+
+import java.util.Optional;
+
+/**
+ * Takes the size of the unfiltered book list from the planner statistics, which costs a catalog lookup
+ * instead of a table scan, and counts searches exactly.
+ */
+public class EstimatedCountStrategy implements CountStrategy {
+
+    private final ExactCountStrategy exactCountStrategy;
+
+    public EstimatedCountStrategy(ExactCountStrategy exactCountStrategy) {
+        this.exactCountStrategy = exactCountStrategy;
+    }
+
+    @Override
+    public Optional<BookCount> getCached(BookSpecification specification) {
+        return specification.isEmpty() ? Optional.empty() : exactCountStrategy.getCached(specification);
+    }
+
+    @Override
+    public TotalCount getTotalCount(BookSpecification specification) {
+        return specification.isEmpty() ? TotalCount.estimated() : exactCountStrategy.getTotalCount(specification);
+    }
+
+    @Override
+    public BookCount toBookCount(BookSpecification specification, TotalCount totalCount, int total) {
+        if (totalCount.getKind() == TotalCount.Kind.ESTIMATED) {
+            return new BookCount(total, false);
+        }
+        return exactCountStrategy.toBookCount(specification, totalCount, total);
+    }
+
+    @Override
+    public void invalidate() {
+        exactCountStrategy.invalidate();
+    }
+}
@@ -0,0 +1,73 @@
+package com.itechart.book_library.service.count;
+
+import com.itechart.book_library.dao.criteria.BookSpecification;
+import com.itechart.book_library.dao.criteria.TotalCount;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Counts every matching book and caches the counts by {@link BookSpecification#toNormalizedKey() normalized
+ * specification} in an LRU map. The cache is cleared on every book change, and entries also expire
+ * after a time-to-live to bound staleness from writes that raced with a count.
+ */
+public class ExactCountStrategy implements CountStrategy {
+
+    private final Map<String, CachedCount> cache;
+    private final long timeToLive;
+
+    public ExactCountStrategy(int cacheSize, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCount> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public Optional<BookCount> getCached(BookSpecification specification) {
+        CachedCount cachedCount;
+        synchronized (cache) {
+            cachedCount = cache.get(specification.toNormalizedKey());
+        }
+        if (cachedCount == null || System.currentTimeMillis() - cachedCount.cachedAt > timeToLive) {
+            return Optional.empty();
+        }
+        return Optional.of(cachedCount.count);
+    }
+
+    @Override
+    public TotalCount getTotalCount(BookSpecification specification) {
+        return TotalCount.exact();
+    }
+
+    @Override
+    public BookCount toBookCount(BookSpecification specification, TotalCount totalCount, int total) {
+        BookCount count = new BookCount(total, false);
+        synchronized (cache) {
+            cache.put(specification.toNormalizedKey(), new CachedCount(count, System.currentTimeMillis()));
+        }
+        return count;
+    }
+
+    @Override
+    public void invalidate() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private static class CachedCount {
+
+        private final BookCount count;
+        private final long cachedAt;
+
+        private CachedCount(BookCount count, long cachedAt) {
+            this.count = count;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.itechart.book_library.service.cover;
+
+import com.itechart.book_library.metrics.MetricsRegistry;
+import com.itechart.book_library.model.entity.CoverSize;
+import lombok.extern.log4j.Log4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed directory of cover images. An original is stored as {@code ab/<sha256>}, named by the
+ * SHA-256 of its content, so an image uploaded for several books is stored once; its renditions are stored
+ * next to it as {@code ab/<sha256>-thumbnail.jpg} and {@code ab/<sha256>-medium.jpg}. Files are written to
+ * a temporary file first and moved in place, so a reader never sees a partly written image.
+ */
+@Log4j
+public class CoverFileStore {
+
+    private static final Pattern SHA_256 = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path directory;
+    private final LongAdder filesWritten;
+    private final LongAdder filesDeduplicated;
+
+    public CoverFileStore(Path directory) {
+        this.directory = directory;
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        filesWritten = metrics.counter("book_library_cover_files_total", "Cover images stored as files", "result=\"written\"");
+        filesDeduplicated = metrics.counter("book_library_cover_files_total", "Cover images stored as files",
+                "result=\"deduplicated\"");
+    }
+
+    public static CoverFileStore create(Properties applicationProperties) {
+        return new CoverFileStore(Paths.get(applicationProperties.getProperty("covers.directory", "covers")).toAbsolutePath());
+    }
+
+    public String store(byte[] content) throws IOException {
+        return store(new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Stores the image read from the stream unless a file with the same content is already stored.
+     *
+     * @return the SHA-256 of the image, its name in the store
+     */
+    public String store(InputStream content) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "cover-", ".tmp");
+        try {
+            MessageDigest digest = newSha256();
+            try (OutputStream output = new DigestOutputStream(Files.newOutputStream(temporary), digest)) {
+                content.transferTo(output);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            moveInPlace(temporary, getPath(sha256, CoverSize.ORIGINAL));
+            return sha256;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Stores a rendition of the original with the given SHA-256.
+     */
+    public void storeRendition(String sha256, CoverSize size, byte[] content) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "cover-", ".tmp");
+        try {
+            Files.write(temporary, content);
+            moveInPlace(temporary, getPath(sha256, size));
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Returns the file of the given rendition of the original with the given SHA-256, whether it is stored or not.
+     */
+    public Path getPath(String sha256, CoverSize size) {
+        if (!SHA_256.matcher(sha256).matches()) {
+            throw new IllegalArgumentException("Not a SHA-256: " + sha256);
+        }
+        String name = size == CoverSize.ORIGINAL ? sha256 : sha256 + "-" + size.getParameter() + ".jpg";
+        return directory.resolve(sha256.substring(0, 2)).resolve(name);
+    }
+
+    private void moveInPlace(Path temporary, Path target) throws IOException {
+        if (Files.exists(target)) {
+            filesDeduplicated.increment();
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        // the same name means the same content, so a concurrent writer of the same file is harmless
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        filesWritten.increment();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
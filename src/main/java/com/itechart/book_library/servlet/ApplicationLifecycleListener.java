@@ -0,0 +1,43 @@
+package com.itechart.book_library.servlet;
+
+import com.itechart.book_library.action.api.ActionFactory;
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.service.CoverService;
+import lombok.extern.log4j.Log4j;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Warms the connection pool and the services up at deploy time, so the first user request
+ * does not pay for opening connections.
+ */
+@Log4j
+@WebListener
+public class ApplicationLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        long start = System.nanoTime();
+        ConnectionPool connectionPool = ConnectionPool.getInstance();
+        int opened = connectionPool.warmUp();
+        log.info("Opened " + opened + " pooled connections in " + millisSince(start) + " ms");
+
+        // the actions hold the services, so this also initializes the services and their DAOs
+        ActionFactory.getInstance();
+        log.info("Application ready in " + millisSince(start) + " ms after deploy started, JVM uptime "
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms");
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        CoverService.INSTANCE.shutdown();
+        ConnectionPool.getInstance().shutdown();
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,71 @@
+package com.itechart.book_library.servlet;
+
+import com.itechart.book_library.service.catalog.CatalogExporter;
+import com.itechart.book_library.service.catalog.CatalogFormat;
+import com.itechart.book_library.service.catalog.ExportDataset;
+import lombok.extern.log4j.Log4j;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Streams an export as a download, {@code GET /admin/export?dataset=books|records&format=csv|ndjson&gzip=true},
+ * CSV and no compression by default. The response is not buffered as a whole: rows go out as they are read.
+ * Restricted to the {@code admin} role in {@code web.xml}.
+ */
+@Log4j
+@WebServlet("/admin/export")
+public class CatalogExportServlet extends HttpServlet {
+
+    private CatalogExporter exporter;
+
+    @Override
+    public void init() throws ServletException {
+        Properties applicationProperties = new Properties();
+        try {
+            applicationProperties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+        } catch (IOException e) {
+            throw new ServletException(e);
+        }
+        exporter = CatalogExporter.create(applicationProperties);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        Optional<ExportDataset> dataset = ExportDataset.fromParameter(req.getParameter("dataset"));
+        String formatParameter = req.getParameter("format");
+        Optional<CatalogFormat> format = formatParameter == null
+                ? Optional.of(CatalogFormat.CSV)
+                : CatalogFormat.fromParameter(formatParameter);
+        if (dataset.isEmpty() || format.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        boolean gzip = Boolean.parseBoolean(req.getParameter("gzip"));
+
+        String fileName = dataset.get().getFileName(format.get(), gzip);
+        resp.setContentType(gzip ? "application/gzip"
+                : format.get() == CatalogFormat.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson; charset=utf-8");
+        resp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        resp.setHeader("Cache-Control", "no-store");
+        try {
+            exporter.export(dataset.get(), format.get(), gzip, resp.getOutputStream());
+        } catch (SQLException e) {
+            // the rows sent so far cannot be taken back, so the client sees a truncated download
+            log.error("Export of " + fileName + " failed ", e);
+            if (!resp.isCommitted()) {
+                resp.reset();
+                resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } else {
+                throw new IOException("Export of " + fileName + " failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.itechart.book_library.servlet;
+
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.service.BookService;
+import com.itechart.book_library.service.catalog.CatalogFormat;
+import com.itechart.book_library.service.catalog.CatalogImporter;
+import lombok.extern.log4j.Log4j;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Imports an uploaded catalog file, {@code POST /admin/import} with the multipart field {@code catalog} and an
+ * optional {@code format}, {@code csv} or {@code ndjson}, otherwise told by the file name. The progress is
+ * streamed back as a plain text line per batch. One import runs at a time; the container spools the upload
+ * to disk, so the file is never held in memory. Restricted to the {@code admin} role in {@code web.xml}.
+ */
+@Log4j
+@WebServlet("/admin/import")
+@MultipartConfig(fileSizeThreshold = 1048576)
+public class CatalogImportServlet extends HttpServlet {
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final BookService bookService = BookService.INSTANCE;
+    private CatalogImporter importer;
+
+    @Override
+    public void init() throws ServletException {
+        Properties applicationProperties = new Properties();
+        try {
+            applicationProperties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+        } catch (IOException e) {
+            throw new ServletException(e);
+        }
+        importer = CatalogImporter.create(applicationProperties, ConnectionPool.getInstance());
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        Part catalog = req.getPart("catalog");
+        if (catalog == null || catalog.getSize() == 0) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No catalog file");
+            return;
+        }
+        String fileName = catalog.getSubmittedFileName() == null ? "" : catalog.getSubmittedFileName();
+        String formatParameter = req.getParameter("format");
+        Optional<CatalogFormat> format = formatParameter == null
+                ? CatalogFormat.fromFileName(fileName)
+                : CatalogFormat.fromParameter(formatParameter);
+        if (format.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown catalog format");
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            resp.sendError(HttpServletResponse.SC_CONFLICT, "Another import is running");
+            return;
+        }
+
+        try (InputStream input = catalog.getInputStream()) {
+            resp.setContentType("text/plain; charset=utf-8");
+            resp.setHeader("Cache-Control", "no-cache");
+            PrintWriter writer = resp.getWriter();
+            try {
+                importer.importCatalog(input, format.get(), CatalogFormat.isGzipped(fileName), progress -> {
+                    // so the imported books show up while the import goes on
+                    bookService.invalidateAll();
+                    writer.println(progress);
+                    writer.flush();
+                });
+            } catch (SQLException | IOException e) {
+                log.error("Catalog import of " + fileName + " failed ", e);
+                bookService.invalidateAll();
+                writer.println("Import failed, the batches reported above are imported: " + e.getMessage());
+                writer.flush();
+            }
+        } finally {
+            running.set(false);
+            catalog.delete();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.itechart.book_library.servlet;
+
+import com.itechart.book_library.model.entity.BookCoverEntity;
+import com.itechart.book_library.model.entity.CoverSize;
+import com.itechart.book_library.service.CoverService;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Serves the cover of a book as raw image bytes, {@code /cover?id=&size=}, where the size is
+ * {@code thumbnail}, {@code medium} or {@code original}, the default. Answers conditional requests
+ * from the cover version without loading the image, lets browsers keep versioned URLs for good
+ * and answers single byte range requests.
+ */
+@WebServlet("/cover")
+public class CoverServlet extends HttpServlet {
+
+    private static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final String REVALIDATE_CACHE_CONTROL = "public, no-cache";
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G'};
+    private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    private final CoverService coverService = CoverService.INSTANCE;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        int bookId;
+        try {
+            bookId = Integer.parseInt(req.getParameter("id"));
+        } catch (NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        Optional<CoverSize> size = CoverSize.fromParameter(req.getParameter("size"));
+        if (size.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+
+        boolean conditional = req.getHeader("If-None-Match") != null || req.getHeader("If-Modified-Since") != null;
+        Optional<BookCoverEntity> cover = conditional
+                ? coverService.getCoverMetadata(bookId, size.get())
+                : coverService.getCover(bookId, size.get());
+        if (cover.isEmpty()) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        setCacheHeaders(req, resp, cover.get(), size.get());
+        if (conditional) {
+            if (isNotModified(req, cover.get())) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            cover = coverService.getCover(bookId, size.get());
+            if (cover.isEmpty()) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            // the rendition may have been stored in between
+            setCacheHeaders(req, resp, cover.get(), size.get());
+        }
+
+        long length = cover.get().getLength();
+        resp.setHeader("Accept-Ranges", "bytes");
+        Optional<ByteRange> range = getRange(req, cover.get(), length);
+        if (range.isPresent() && range.get().start >= length) {
+            resp.setHeader("Content-Range", "bytes */" + length);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        long start = range.map(r -> r.start).orElse(0L);
+        long end = range.map(r -> Math.min(r.end, length - 1)).orElse(length - 1);
+        if (range.isPresent()) {
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+        }
+        resp.setContentLengthLong(end - start + 1);
+
+        if (cover.get().getFile() != null) {
+            writeFile(req, resp, cover.get(), start, end);
+        } else {
+            byte[] content = cover.get().getContent();
+            resp.setContentType(getContentType(cover.get(), content));
+            resp.getOutputStream().write(content, (int) start, (int) (end - start + 1));
+        }
+    }
+
+    /**
+     * Lets Tomcat send the file straight from the page cache with sendfile if it supports it,
+     * otherwise transfers it to the response channel, without loading it into the heap either way.
+     */
+    private void writeFile(HttpServletRequest req, HttpServletResponse resp, BookCoverEntity cover, long start, long end)
+            throws IOException {
+        try (FileChannel file = FileChannel.open(cover.getFile(), StandardOpenOption.READ)) {
+            ByteBuffer signature = ByteBuffer.allocate(PNG_SIGNATURE.length);
+            file.read(signature, 0);
+            resp.setContentType(getContentType(cover, signature.array()));
+            if (Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+                req.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, cover.getFile().toString());
+                req.setAttribute(SENDFILE_START_ATTRIBUTE, start);
+                req.setAttribute(SENDFILE_END_ATTRIBUTE, end + 1);
+                return;
+            }
+            WritableByteChannel output = Channels.newChannel(resp.getOutputStream());
+            long position = start;
+            while (position <= end) {
+                long transferred = file.transferTo(position, end - position + 1, output);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Returns the single byte range requested, if any. Multiple ranges, malformed ones and ranges of
+     * another version than the one If-Range names are answered with the whole image, as RFC 7233 allows.
+     */
+    private Optional<ByteRange> getRange(HttpServletRequest req, BookCoverEntity cover, long length) {
+        String range = req.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return Optional.empty();
+        }
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null && !ifRange.strip().equals(getETag(cover))) {
+            return Optional.empty();
+        }
+        String spec = range.substring("bytes=".length()).strip();
+        int dash = spec.indexOf('-');
+        try {
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                // an empty suffix selects nothing, so it can never be satisfied
+                return Optional.of(suffixLength == 0
+                        ? new ByteRange(length, length)
+                        : new ByteRange(Math.max(0, length - suffixLength), length - 1));
+            }
+            if (dash > 0) {
+                long start = Long.parseLong(spec.substring(0, dash));
+                long end = dash == spec.length() - 1 ? length - 1 : Long.parseLong(spec.substring(dash + 1));
+                return start <= end ? Optional.of(new ByteRange(start, end)) : Optional.empty();
+            }
+        } catch (NumberFormatException e) {
+            // a malformed range is ignored
+        }
+        return Optional.empty();
+    }
+
+    private void setCacheHeaders(HttpServletRequest req, HttpServletResponse resp, BookCoverEntity cover, CoverSize size) {
+        resp.setHeader("ETag", getETag(cover));
+        resp.setDateHeader("Last-Modified", cover.getUpdatedAt().getTime());
+        // a URL with the current version never changes, unless it got the original in place of a rendition
+        // not made yet; one without the version has to be revalidated
+        resp.setHeader("Cache-Control", cover.getVersion().equals(req.getParameter("v")) && cover.getSize() == size
+                ? IMMUTABLE_CACHE_CONTROL
+                : REVALIDATE_CACHE_CONTROL);
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since, as RFC 7232 requires.
+     */
+    private boolean isNotModified(HttpServletRequest req, BookCoverEntity cover) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            String eTag = getETag(cover);
+            return Arrays.stream(ifNoneMatch.split(","))
+                    .map(String::strip)
+                    .anyMatch(candidate -> candidate.equals("*") || candidate.equals(eTag));
+        }
+        try {
+            // HTTP dates have a precision of one second
+            return req.getDateHeader("If-Modified-Since") >= cover.getUpdatedAt().getTime() / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static String getETag(BookCoverEntity cover) {
+        String suffix = cover.getSize() == CoverSize.ORIGINAL ? "" : "-" + cover.getSize().getParameter();
+        return "\"" + cover.getVersion() + suffix + "\"";
+    }
+
+    /**
+     * Renditions are always JPEG, the original is whatever was uploaded.
+     */
+    private static String getContentType(BookCoverEntity cover, byte[] signature) {
+        return cover.getSize() == CoverSize.ORIGINAL && isPng(signature) ? "image/png" : "image/jpeg";
+    }
+
+    private static boolean isPng(byte[] content) {
+        return content.length >= PNG_SIGNATURE.length
+                && Arrays.equals(content, 0, PNG_SIGNATURE.length, PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+    }
+
+    /**
+     * Inclusive byte range; its end may lie past the end of the image, which limits it.
+     */
+    private static final class ByteRange {
+        private final long start;
+        private final long end;
+
+        private ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
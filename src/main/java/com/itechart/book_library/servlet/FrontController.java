@@ -3,6 +3,7 @@ package com.itechart.book_library.servlet;
 import com.itechart.book_library.action.api.Action;
 import com.itechart.book_library.action.api.ActionFactory;
 import com.itechart.book_library.action.api.ActionResult;
+import lombok.extern.log4j.Log4j;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
@@ -11,12 +12,15 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+@Log4j
 @WebServlet({"/main", "/add", "/edit", "/delete", "/search"})
 @MultipartConfig(maxFileSize = 2097152)
 public class FrontController extends HttpServlet {
 
     ActionFactory actionFactory;
+    private final AtomicBoolean firstRequestServed = new AtomicBoolean();
 
     @Override
     public void init() {
@@ -25,8 +29,16 @@ public class FrontController extends HttpServlet {
 
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        Action action = actionFactory.getAction(req);
-        doForwardOrRedirect(action.execute(req, resp), req, resp);
+        long start = System.nanoTime();
+        try {
+            Action action = actionFactory.getAction(req);
+            doForwardOrRedirect(action.execute(req, resp), req, resp);
+        } finally {
+            if (!firstRequestServed.get() && firstRequestServed.compareAndSet(false, true)) {
+                log.info("First request " + req.getMethod() + " " + req.getServletPath() + " served in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
     }
 
     private void doForwardOrRedirect(ActionResult actionResult, HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
@@ -0,0 +1,31 @@
+package com.itechart.book_library.servlet;
+
+import com.itechart.book_library.metrics.MetricsRegistry;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Serves the metrics in the Prometheus text format, {@code GET /admin/metrics}. Restricted to the {@code admin} role
+ * in {@code web.xml}, so scrapers authenticate with BASIC auth.
+ */
+@WebServlet("/admin/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    private static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType(PROMETHEUS_CONTENT_TYPE);
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter writer = resp.getWriter();
+        metrics.write(writer);
+        writer.flush();
+    }
+}
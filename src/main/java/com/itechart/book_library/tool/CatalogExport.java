@@ -0,0 +1,54 @@
+package com.itechart.book_library.tool;
+
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.service.catalog.CatalogExporter;
+import com.itechart.book_library.service.catalog.CatalogFormat;
+import com.itechart.book_library.service.catalog.ExportDataset;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Exports the books or the borrow records with the {@link CatalogExporter}, e.g. from a nightly job. The format
+ * and compression are told by the extension of the file, {@code .csv} or {@code .ndjson}/{@code .jsonl},
+ * optionally followed by {@code .gz}. The file is written next to its final name and moved in place when
+ * complete, so a failed export never leaves a truncated file behind.
+ * <p>
+ * Usage: {@code java -cp <classpath> com.itechart.book_library.tool.CatalogExport <books|records> <file>}
+ */
+public class CatalogExport {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 2) {
+            System.err.println("Usage: CatalogExport <books|records> <file>");
+            System.exit(2);
+        }
+        ExportDataset dataset = ExportDataset.fromParameter(args[0])
+                .orElseThrow(() -> new IllegalArgumentException("Unknown dataset " + args[0]));
+        Path file = Paths.get(args[1]).toAbsolutePath();
+        String fileName = file.getFileName().toString();
+        CatalogFormat format = CatalogFormat.fromFileName(fileName)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown export format of " + args[1]));
+
+        Properties applicationProperties = new Properties();
+        applicationProperties.load(CatalogExport.class.getClassLoader().getResourceAsStream("application.properties"));
+        ConnectionPool connectionPool = ConnectionPool.getInstance();
+        Path temporary = Files.createTempFile(file.getParent(), fileName, ".tmp");
+        try {
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                CatalogExporter.create(applicationProperties)
+                        .export(dataset, format, CatalogFormat.isGzipped(fileName), output);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+            connectionPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.itechart.book_library.tool;
+
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.service.catalog.CatalogFormat;
+import com.itechart.book_library.service.catalog.CatalogImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Imports a catalog file with the {@link CatalogImporter}. The format is told by the extension, {@code .csv} or
+ * {@code .ndjson}/{@code .jsonl}, optionally followed by {@code .gz}, unless it is given. The running application
+ * keeps serving its cached pages until they expire.
+ * <p>
+ * Usage: {@code java -cp <classpath> com.itechart.book_library.tool.CatalogImport <file> [csv|ndjson]}
+ */
+public class CatalogImport {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length == 0) {
+            System.err.println("Usage: CatalogImport <file> [csv|ndjson]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        String fileName = file.getFileName().toString();
+        CatalogFormat format = (args.length > 1 ? CatalogFormat.fromParameter(args[1]) : CatalogFormat.fromFileName(fileName))
+                .orElseThrow(() -> new IllegalArgumentException("Unknown catalog format of " + args[0]));
+
+        Properties applicationProperties = new Properties();
+        applicationProperties.load(CatalogImport.class.getClassLoader().getResourceAsStream("application.properties"));
+        ConnectionPool connectionPool = ConnectionPool.getInstance();
+        // the importer logs the progress of every batch
+        try (InputStream input = Files.newInputStream(file)) {
+            CatalogImporter.create(applicationProperties, connectionPool)
+                    .importCatalog(input, format, CatalogFormat.isGzipped(fileName), progress -> { });
+        } finally {
+            connectionPool.shutdown();
+        }
+    }
+}
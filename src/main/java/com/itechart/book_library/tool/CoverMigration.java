@@ -0,0 +1,147 @@
+package com.itechart.book_library.tool;
+
+import com.itechart.book_library.connection.ConnectionLease;
+import com.itechart.book_library.connection.ConnectionPool;
+import com.itechart.book_library.model.entity.CoverSize;
+import com.itechart.book_library.service.cover.CoverFileStore;
+import lombok.extern.log4j.Log4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Moves the covers stored in the book table out to the {@link CoverFileStore}, leaving their SHA-256 in the row.
+ * Covers are read in batches ordered by book id and streamed into files one at a time, and each batch is
+ * committed on its own, so the tool can be stopped and run again; it resumes with the covers still in the table.
+ * A cover changed while its batch runs keeps the new bytes, as rows are only cleared if their MD5 still matches.
+ * Moved covers keep their modification time, as the transactions are marked as moves for the
+ * {@code book_cover_version} trigger.
+ * <p>
+ * Usage: {@code java -cp <classpath> com.itechart.book_library.tool.CoverMigration [batch size, 100 by default]}
+ */
+@Log4j
+public class CoverMigration {
+
+    private static final String SELECT_COVERS_QUERY = """
+            SELECT id, cover_md5, cover
+            FROM book
+            WHERE cover IS NOT NULL
+              AND id > ?
+            ORDER BY id
+            LIMIT ?""";
+    private static final String UPDATE_COVER_QUERY = """
+            UPDATE book
+            SET cover        = NULL,
+                cover_sha256 = ?
+            WHERE id = ?
+              AND cover_md5 = ?""";
+    // tells the book_cover_version trigger that the cover is the same image, so its modification time is kept;
+    // local to the transaction of the batch
+    private static final String MARK_MOVE_QUERY = "SELECT set_config('book.cover_move', 'on', true)";
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int FETCH_SIZE = 10;
+
+    private final ConnectionPool connectionPool;
+    private final CoverFileStore fileStore;
+    private final int batchSize;
+
+    public CoverMigration(ConnectionPool connectionPool, CoverFileStore fileStore, int batchSize) {
+        this.connectionPool = connectionPool;
+        this.fileStore = fileStore;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Properties applicationProperties = new Properties();
+        applicationProperties.load(CoverMigration.class.getClassLoader().getResourceAsStream("application.properties"));
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_BATCH_SIZE;
+        ConnectionPool connectionPool = ConnectionPool.getInstance();
+        try {
+            new CoverMigration(connectionPool, CoverFileStore.create(applicationProperties), batchSize).migrate();
+        } finally {
+            connectionPool.shutdown();
+        }
+    }
+
+    /**
+     * @return the number of covers moved
+     */
+    public int migrate() {
+        int moved = 0;
+        long bytes = 0;
+        int lastId = 0;
+        long start = System.nanoTime();
+        try (ConnectionLease connection = connectionPool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                while (true) {
+                    Batch batch = migrateBatch(connection, lastId);
+                    connection.commit();
+                    if (batch.covers == 0) {
+                        break;
+                    }
+                    moved += batch.moved;
+                    bytes += batch.bytes;
+                    lastId = batch.lastId;
+                    log.info("Moved " + moved + " covers, " + bytes / 1024 + " KiB, up to book " + lastId
+                            + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            } catch (SQLException | IOException e) {
+                connection.rollback();
+                log.error("Cover migration stopped after book " + lastId + " ", e);
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            log.error("Cannot migrate covers ", e);
+        }
+        log.info("Cover migration moved " + moved + " covers");
+        return moved;
+    }
+
+    private Batch migrateBatch(Connection connection, int afterId) throws SQLException, IOException {
+        Batch batch = new Batch();
+        try (PreparedStatement markMove = connection.prepareStatement(MARK_MOVE_QUERY);
+             PreparedStatement select = connection.prepareStatement(SELECT_COVERS_QUERY);
+             PreparedStatement update = connection.prepareStatement(UPDATE_COVER_QUERY)) {
+            markMove.executeQuery().close();
+            select.setInt(1, afterId);
+            select.setInt(2, batchSize);
+            // keeps only a few covers in memory at a time instead of the whole batch
+            select.setFetchSize(FETCH_SIZE);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    int id = resultSet.getInt(1);
+                    String sha256;
+                    try (InputStream cover = resultSet.getBinaryStream(3)) {
+                        sha256 = fileStore.store(cover);
+                    }
+                    batch.bytes += Files.size(fileStore.getPath(sha256, CoverSize.ORIGINAL));
+                    update.setString(1, sha256);
+                    update.setInt(2, id);
+                    update.setString(3, resultSet.getString(2));
+                    update.addBatch();
+                    batch.covers++;
+                    batch.lastId = id;
+                }
+            }
+            for (int updated : update.executeBatch()) {
+                batch.moved += updated > 0 ? 1 : 0;
+            }
+        }
+        return batch;
+    }
+
+    private static final class Batch {
+        private int covers;
+        private int moved;
+        private int lastId;
+        private long bytes;
+    }
+}
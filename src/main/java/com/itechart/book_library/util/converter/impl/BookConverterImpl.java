@@ -2,20 +2,20 @@ package com.itechart.book_library.util.converter.impl;
 
 import com.itechart.book_library.model.dto.AuthorDto;
 import com.itechart.book_library.model.dto.BookDto;
+import com.itechart.book_library.model.dto.CoverUpload;
 import com.itechart.book_library.model.dto.GenreDto;
 import com.itechart.book_library.model.entity.BookEntity;
+import com.itechart.book_library.model.entity.CoverSize;
 import com.itechart.book_library.util.converter.api.AuthorConverter;
 import com.itechart.book_library.util.converter.api.BookConverter;
 import com.itechart.book_library.util.converter.api.GenreConverter;
 import lombok.SneakyThrows;
-import org.apache.commons.io.IOUtils;
 
 import javax.servlet.http.HttpServletRequest;
-import java.io.InputStream;
+import javax.servlet.http.Part;
 import java.sql.Date;
 import java.time.LocalDate;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.stream.Collectors;
 
 
@@ -36,17 +36,17 @@ public class BookConverterImpl implements BookConverter {
                 .pageCount(bookDto.getPageCount())
                 .ISBN(bookDto.getISBN())
                 .description(bookDto.getDescription())
-                .cover(bookDto.getCover())
                 .availableBookAmount(bookDto.getAvailableBookAmount())
                 .totalBookAmount(bookDto.getTotalBookAmount())
                 .build();
     }
 
-    @SneakyThrows
     @Override
     public BookDto toDto(BookEntity bookEntity) {
-        InputStream cover = bookEntity.getCover();
-        String base64Cover = (cover == null) ? "" : Base64.getEncoder().encodeToString(IOUtils.toByteArray(cover));
+        // the version makes the URL change with the cover, so browsers can cache it for good
+        String coverUrl = (bookEntity.getCoverVersion() == null) ? ""
+                : "/cover?id=" + bookEntity.getId() + "&v=" + bookEntity.getCoverVersion();
+        boolean hasCover = !coverUrl.isEmpty();
         return BookDto.builder()
                 .id(bookEntity.getId())
                 .title(bookEntity.getTitle())
@@ -57,8 +57,9 @@ public class BookConverterImpl implements BookConverter {
                 .pageCount(bookEntity.getPageCount())
                 .ISBN(bookEntity.getISBN())
                 .description(bookEntity.getDescription())
-                .cover(cover)
-                .base64Cover(base64Cover)
+                .coverUrl(coverUrl)
+                .coverThumbnailUrl(hasCover ? coverUrl + "&size=" + CoverSize.THUMBNAIL.getParameter() : null)
+                .coverMediumUrl(hasCover ? coverUrl + "&size=" + CoverSize.MEDIUM.getParameter() : null)
                 .availableBookAmount(bookEntity.getAvailableBookAmount())
                 .totalBookAmount(bookEntity.getTotalBookAmount())
                 .build();
@@ -82,11 +83,13 @@ public class BookConverterImpl implements BookConverter {
                 .pageCount(Integer.parseInt(req.getParameter("pageCount")))
                 .ISBN(req.getParameter("ISBN"))
                 .description(req.getParameter("description"))
-                .cover(req.getPart("cover").getInputStream().available() == 0
-                        ? null
-                        : req.getPart("cover").getInputStream())
+                .cover(readCover(req.getPart("cover")))
                 .availableBookAmount(totalBookAmount)
                 .totalBookAmount(totalBookAmount)
                 .build();
     }
+
+    private static CoverUpload readCover(Part part) {
+        return (part == null || part.getSize() == 0) ? null : new CoverUpload(part);
+    }
 }
@@ -23,6 +23,7 @@ public enum BookFormValidator implements Validator {
                 && req.getParameter("date").matches(publishDatePattern)
                 && req.getParameter("pageCount").matches(pageCountPattern)
                 && req.getParameter("ISBN").matches(ISBNPattern)
-                && req.getParameter("totalBookAmount").matches(totalBookAmountPattern);
+                && req.getParameter("totalBookAmount").matches(totalBookAmountPattern)
+                && CoverValidator.INSTANCE.isValid(req);
     }
 }
@@ -0,0 +1,69 @@
+package com.itechart.book_library.util.validator;
+
+import lombok.extern.log4j.Log4j;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.Part;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Accepts a book form without a cover or with a JPEG or PNG cover of at most {@code covers.max-size} bytes.
+ * The type is told by the magic bytes at the start of the file rather than by the name or the declared
+ * content type, and only those bytes are read.
+ */
+@Log4j
+public enum CoverValidator implements Validator {
+    INSTANCE;
+
+    private static final byte[] JPEG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final long maxSize;
+
+    CoverValidator() {
+        Properties properties = new Properties();
+        try {
+            properties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        maxSize = Long.parseLong(properties.getProperty("covers.max-size", "2097152"));
+    }
+
+    @Override
+    public boolean isValid(HttpServletRequest req) {
+        try {
+            Part part = req.getPart("cover");
+            if (part == null || part.getSize() == 0) {
+                return true;
+            }
+            try (InputStream content = part.getInputStream()) {
+                return isValid(part.getSize(), content);
+            }
+        } catch (IOException | ServletException e) {
+            log.warn("Cannot read the uploaded cover ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether an image of the given size starting with the given content is an acceptable cover.
+     * Reads only the first bytes of the content.
+     */
+    public boolean isValid(long size, InputStream content) throws IOException {
+        if (size > maxSize) {
+            return false;
+        }
+        byte[] header = content.readNBytes(PNG_SIGNATURE.length);
+        return startsWith(header, JPEG_SIGNATURE) || startsWith(header, PNG_SIGNATURE);
+    }
+
+    private static boolean startsWith(byte[] header, byte[] signature) {
+        return header.length >= signature.length
+                && Arrays.equals(header, 0, signature.length, signature, 0, signature.length);
+    }
+}
@@ -0,0 +1,26 @@
+-- Full-text search document of every book, used when search.mode=full-text.
+-- Title, authors, genres and description are weighted A, B, C and D.
+CREATE TABLE IF NOT EXISTS book_search
+(
+    book_id  integer PRIMARY KEY REFERENCES book (id) ON DELETE CASCADE,
+    document tsvector NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS book_search_document_idx ON book_search USING GIN (document);
+
+INSERT INTO book_search (book_id, document)
+SELECT book.id,
+       setweight(to_tsvector('simple', coalesce(book.title, '')), 'A') ||
+       setweight(to_tsvector('simple', coalesce((select string_agg(author.name, ' ')
+                                                 from author_book
+                                                          join author on author.id = author_book.author_id
+                                                 where author_book.book_id = book.id), '')), 'B') ||
+       setweight(to_tsvector('simple', coalesce((select string_agg(genre.name, ' ')
+                                                 from genre_book
+                                                          join genre on genre.id = genre_book.genre_id
+                                                 where genre_book.book_id = book.id), '')), 'C') ||
+       setweight(to_tsvector('simple', coalesce(book.description, '')), 'D')
+FROM book
+ON CONFLICT (book_id) DO UPDATE SET document = excluded.document;
+
+ANALYZE book_search;
@@ -0,0 +1,28 @@
+-- Cover version used by the /cover endpoint for its ETag, Last-Modified and cache-busting URLs.
+-- The trigger keeps it current on every write of the cover, whatever the writer.
+ALTER TABLE book ADD COLUMN IF NOT EXISTS cover_md5 text;
+ALTER TABLE book ADD COLUMN IF NOT EXISTS cover_updated_at timestamptz;
+
+CREATE OR REPLACE FUNCTION book_cover_version() RETURNS trigger AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' OR NEW.cover IS DISTINCT FROM OLD.cover THEN
+        NEW.cover_md5 := md5(NEW.cover);
+        NEW.cover_updated_at := CASE WHEN NEW.cover IS NULL THEN NULL ELSE now() END;
+    END IF;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS book_cover_version ON book;
+CREATE TRIGGER book_cover_version
+    BEFORE INSERT OR UPDATE OF cover
+    ON book
+    FOR EACH ROW
+EXECUTE FUNCTION book_cover_version();
+
+UPDATE book
+SET cover_md5        = md5(cover),
+    cover_updated_at = now()
+WHERE cover IS NOT NULL
+  AND cover_md5 IS NULL;
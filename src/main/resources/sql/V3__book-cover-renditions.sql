@@ -0,0 +1,18 @@
+-- Downscaled JPEG renditions of the cover, written asynchronously after an upload.
+-- They are cleared whenever the cover changes; /cover serves the original until they are rebuilt.
+ALTER TABLE book ADD COLUMN IF NOT EXISTS cover_thumbnail bytea;
+ALTER TABLE book ADD COLUMN IF NOT EXISTS cover_medium bytea;
+
+-- Replaces the trigger function of V2, so this script must run after it.
+CREATE OR REPLACE FUNCTION book_cover_version() RETURNS trigger AS
+$$
+BEGIN
+    IF TG_OP = 'INSERT' OR NEW.cover IS DISTINCT FROM OLD.cover THEN
+        NEW.cover_md5 := md5(NEW.cover);
+        NEW.cover_updated_at := CASE WHEN NEW.cover IS NULL THEN NULL ELSE now() END;
+        NEW.cover_thumbnail := NULL;
+        NEW.cover_medium := NULL;
+    END IF;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,35 @@
+-- Covers stored as files named by the SHA-256 of their content (covers.storage=filesystem).
+-- A book has either the bytes in cover or the hash in cover_sha256; the hash is then also its cover version.
+-- Existing covers are moved out with com.itechart.book_library.tool.CoverMigration, which sets book.cover_move
+-- in its transactions so that the moved covers keep their modification time.
+ALTER TABLE book ADD COLUMN IF NOT EXISTS cover_sha256 char(64);
+
+-- Replaces the trigger function of V3, so this script must run after it.
+CREATE OR REPLACE FUNCTION book_cover_version() RETURNS trigger AS
+$$
+BEGIN
+    IF TG_OP = 'UPDATE' AND OLD.cover IS NOT NULL AND NEW.cover IS NULL
+        AND OLD.cover_sha256 IS NULL AND NEW.cover_sha256 IS NOT NULL
+        AND current_setting('book.cover_move', true) = 'on' THEN
+        -- the same image moved out to a file by CoverMigration keeps its modification time;
+        -- any other change, e.g. a new upload stored as a file, is a new version of the cover
+        NEW.cover_md5 := NULL;
+        NEW.cover_thumbnail := NULL;
+        NEW.cover_medium := NULL;
+    ELSIF TG_OP = 'INSERT' OR NEW.cover IS DISTINCT FROM OLD.cover
+        OR NEW.cover_sha256 IS DISTINCT FROM OLD.cover_sha256 THEN
+        NEW.cover_md5 := md5(NEW.cover);
+        NEW.cover_updated_at := CASE WHEN NEW.cover IS NULL AND NEW.cover_sha256 IS NULL THEN NULL ELSE now() END;
+        NEW.cover_thumbnail := NULL;
+        NEW.cover_medium := NULL;
+    END IF;
+    RETURN NEW;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS book_cover_version ON book;
+CREATE TRIGGER book_cover_version
+    BEFORE INSERT OR UPDATE OF cover, cover_sha256
+    ON book
+    FOR EACH ROW
+EXECUTE FUNCTION book_cover_version();
@@ -0,0 +1,29 @@
+-- One row per author and genre name, so names can be upserted, and one link per book and author or genre.
+-- Links of a duplicated name are moved to its oldest row before the other rows are removed.
+UPDATE author_book
+SET author_id = keep.id
+FROM author duplicate
+         JOIN (SELECT name, min(id) AS id FROM author GROUP BY name HAVING count(*) > 1) keep
+              ON keep.name = duplicate.name AND keep.id <> duplicate.id
+WHERE author_book.author_id = duplicate.id;
+
+UPDATE genre_book
+SET genre_id = keep.id
+FROM genre duplicate
+         JOIN (SELECT name, min(id) AS id FROM genre GROUP BY name HAVING count(*) > 1) keep
+              ON keep.name = duplicate.name AND keep.id <> duplicate.id
+WHERE genre_book.genre_id = duplicate.id;
+
+DELETE FROM author_book a USING author_book b
+WHERE a.book_id = b.book_id AND a.author_id = b.author_id AND a.ctid > b.ctid;
+DELETE FROM genre_book a USING genre_book b
+WHERE a.book_id = b.book_id AND a.genre_id = b.genre_id AND a.ctid > b.ctid;
+
+DELETE FROM author a USING author b WHERE a.name = b.name AND a.id > b.id;
+DELETE FROM genre a USING genre b WHERE a.name = b.name AND a.id > b.id;
+
+CREATE UNIQUE INDEX IF NOT EXISTS author_name_idx ON author (name);
+CREATE UNIQUE INDEX IF NOT EXISTS genre_name_idx ON genre (name);
+-- book_id leads, as links are read, diffed and deleted by book
+CREATE UNIQUE INDEX IF NOT EXISTS author_book_book_id_author_id_idx ON author_book (book_id, author_id);
+CREATE UNIQUE INDEX IF NOT EXISTS genre_book_book_id_genre_id_idx ON genre_book (book_id, genre_id);
@@ -0,0 +1,14 @@
+-- One reader per email, so readers can be upserted by email when a book is lent to several of them at once.
+-- Records of a duplicated email are moved to its oldest reader before the other readers are removed.
+UPDATE record
+SET reader_id = keep.id
+FROM reader duplicate
+         JOIN (SELECT email, min(id) AS id FROM reader GROUP BY email HAVING count(*) > 1) keep
+              ON keep.email = duplicate.email AND keep.id <> duplicate.id
+WHERE record.reader_id = duplicate.id;
+
+DELETE FROM reader a USING reader b WHERE a.email = b.email AND a.id > b.id;
+
+CREATE UNIQUE INDEX IF NOT EXISTS reader_email_idx ON reader (email);
+-- serves the check for readers already holding a book
+CREATE INDEX IF NOT EXISTS record_book_id_reader_id_idx ON record (book_id, reader_id);
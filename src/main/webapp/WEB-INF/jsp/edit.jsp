@@ -197,6 +197,9 @@
     <div class="row mb-1 justify-content-center">
       <label for="cover" class="form-label col-sm-2 col-form-label">Cover</label>
       <div class="col-sm-4">
+        <c:if test="${not empty bookDto.coverUrl}">
+          <img class="img-thumbnail mb-1" src="${bookDto.coverMediumUrl}" alt="${bookDto.title}" style="max-height: 150px">
+        </c:if>
         <input class="form-control" type="file" accept="image/jpeg,image/png" name="cover" id="cover">
       </div>
     </div>
@@ -33,6 +33,7 @@
   </div>
 </nav>
 <div class="container">
+  <p class="text-muted mt-2 mb-0">Books found: ${requestScope.totalBookAmount}</p>
   <form action="delete" method="post">
     <div class="row mt-2">
       <div class="col-12 col-sm-8 col-lg-5">
@@ -41,13 +42,12 @@
             <a href="/edit?id=${bookDto.id}" class="list-group-item list-group-item-action d-flex">
               <div class="image-parent">
                 <c:choose>
-                  <c:when test="${bookDto.base64Cover.equals(\"\")}">
+                  <c:when test="${empty bookDto.coverUrl}">
                     <img class="img-fluid rounded cover" src="../../images/placeholder-cover.png"
                          alt="lorem">
                   </c:when>
                   <c:otherwise>
-                    <img class="img-fluid rounded cover"
-                         src="data:image/jpeg;base64,${bookDto.base64Cover}"
+                    <img class="img-fluid rounded cover" src="${bookDto.coverThumbnailUrl}" loading="lazy"
                          alt="lorem">
                   </c:otherwise>
                 </c:choose>
@@ -55,7 +55,7 @@
               <div class="flex-column ms-3">
                 <h4>${bookDto.title}</h4>
                 <p><small>
-                    ${bookDto.authorDtos.get(0).name}
+                    ${bookDto.authorDtos[0].name}
                   <c:if test="${bookDto.authorDtos.size() > 1}">
                     <c:forEach var="authorEntity" items="${bookDto.authorDtos}" begin="1">
                       , ${authorEntity.name}
@@ -93,26 +93,21 @@
 
   <nav aria-label="Page navigation example">
     <ul class="pagination">
-      <c:if test="${param.page != null && param.page != 1}">
+      <c:if test="${requestScope.previousPageUrl != null}">
         <li class="page-item">
-          <a class="page-link" href="/main?page=${param.page - 1}" aria-label="Previous">
+          <a class="page-link" href="${requestScope.previousPageUrl}" aria-label="Previous">
             <span aria-hidden="true">&laquo;</span>
           </a>
         </li>
       </c:if>
 
       <c:forEach var="pageNum" begin="1" end="${pageAmount}">
-        <li class="page-item"><a class="page-link" href="/main?page=${pageNum}">${pageNum}</a></li>
+        <li class="page-item"><a class="page-link" href="/main?page=${pageNum}${requestScope.searchQuery}">${pageNum}</a></li>
       </c:forEach>
 
-      <c:if test="${param.page != pageAmount && requestScope.bookList.size() != 0}">
-        <c:set var="currentPage" value="${param.page}"/>
-        <c:if test="${currentPage == null}">
-          <c:set var="currentPage" value="1"/>
-        </c:if>
+      <c:if test="${requestScope.nextPageUrl != null}">
         <li class="page-item">
-
-          <a class="page-link" href="/main?page=${currentPage + 1}" aria-label="Next">
+          <a class="page-link" href="${requestScope.nextPageUrl}" aria-label="Next">
             <span aria-hidden="true">&raquo;</span>
           </a>
         </li>
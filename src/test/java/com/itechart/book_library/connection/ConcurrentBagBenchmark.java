@@ -0,0 +1,136 @@
+package com.itechart.book_library.connection;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark of the checkout path: the {@link ConcurrentBag} against the lock-based
+ * {@link LinkedBlockingDeque} the pool kept its idle connections in before. Threads borrow a connection,
+ * hold it for a few microseconds and return it, with more threads than connections as under load.
+ * <p>
+ * Not a test, so the build does not run it. After {@code mvn test-compile}:
+ * {@code java -cp target/classes:target/test-classes:<junit and log4j jars>
+ * com.itechart.book_library.connection.ConcurrentBagBenchmark [connections] [seconds per run]}
+ */
+public class ConcurrentBagBenchmark {
+
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+    private static final long HOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(5);
+
+    interface Checkout {
+
+        PooledConnection borrow() throws InterruptedException;
+
+        void requite(PooledConnection pooled);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long runNanos = TimeUnit.SECONDS.toNanos(args.length > 1 ? Long.parseLong(args[1]) : 3);
+        System.out.printf("%-8s %8s %14s %14s %14s %10s%n", "threads", "pool", "checkouts/s", "mean wait, ns", "max wait, ms",
+                "timeouts");
+        for (int threads : THREAD_COUNTS) {
+            // a short run of each first, so both are compiled before they are measured
+            run(newBlockingDeque(connections), threads, runNanos / 3);
+            run(newConcurrentBag(connections), threads, runNanos / 3);
+            print(threads, "deque", run(newBlockingDeque(connections), threads, runNanos), runNanos);
+            print(threads, "bag", run(newConcurrentBag(connections), threads, runNanos), runNanos);
+        }
+    }
+
+    private static Checkout newBlockingDeque(int connections) throws SQLException {
+        BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+        for (int i = 0; i < connections; i++) {
+            idleConnections.offerFirst(ConcurrentBagTest.newConnection(PooledConnection.STATE_NOT_IN_USE));
+        }
+        return new Checkout() {
+            @Override
+            public PooledConnection borrow() throws InterruptedException {
+                return idleConnections.pollFirst(1, TimeUnit.SECONDS);
+            }
+
+            @Override
+            public void requite(PooledConnection pooled) {
+                idleConnections.offerFirst(pooled);
+            }
+        };
+    }
+
+    private static Checkout newConcurrentBag(int connections) throws SQLException {
+        ConcurrentBag bag = new ConcurrentBag();
+        for (int i = 0; i < connections; i++) {
+            bag.add(ConcurrentBagTest.newConnection(PooledConnection.STATE_NOT_IN_USE));
+        }
+        return new Checkout() {
+            @Override
+            public PooledConnection borrow() throws InterruptedException {
+                return bag.borrow(1, TimeUnit.SECONDS);
+            }
+
+            @Override
+            public void requite(PooledConnection pooled) {
+                bag.requite(pooled);
+            }
+        };
+    }
+
+    /**
+     * @return the number of checkouts, the total and the longest nanoseconds spent waiting for them and the number
+     * of checkouts that found no connection within a second
+     */
+    private static long[] run(Checkout checkout, int threads, long runNanos) throws InterruptedException {
+        LongAdder checkouts = new LongAdder();
+        LongAdder waitNanos = new LongAdder();
+        LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+        LongAdder timeouts = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    long deadline = System.nanoTime() + runNanos;
+                    long now;
+                    while ((now = System.nanoTime()) < deadline) {
+                        PooledConnection pooled = checkout.borrow();
+                        long borrowed = System.nanoTime();
+                        maxWaitNanos.accumulate(borrowed - now);
+                        if (pooled == null) {
+                            timeouts.increment();
+                            continue;
+                        }
+                        waitNanos.add(borrowed - now);
+                        checkouts.increment();
+                        while (System.nanoTime() - borrowed < HOLD_NANOS) {
+                            Thread.onSpinWait();
+                        }
+                        checkout.requite(pooled);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return new long[]{checkouts.sum(), waitNanos.sum(), maxWaitNanos.get(), timeouts.sum()};
+    }
+
+    private static void print(int threads, String pool, long[] result, long runNanos) {
+        long perSecond = result[0] * TimeUnit.SECONDS.toNanos(1) / runNanos;
+        long meanWait = result[0] == 0 ? 0 : result[1] / result[0];
+        System.out.printf("%-8d %8s %14d %14d %14d %10d%n", threads, pool, perSecond, meanWait,
+                TimeUnit.NANOSECONDS.toMillis(result[2]), result[3]);
+    }
+}
@@ -0,0 +1,194 @@
+package com.itechart.book_library.connection;
+
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentBagTest {
+
+    private final ConcurrentBag bag = new ConcurrentBag();
+
+    @Test
+    public void borrowReturnsTheConnectionTheThreadReturned() throws Exception {
+        PooledConnection first = addIdle();
+        PooledConnection second = addIdle();
+
+        PooledConnection borrowed = bag.borrow(0, TimeUnit.MILLISECONDS);
+        assertSame(first, borrowed);
+        assertEquals(PooledConnection.STATE_IN_USE, borrowed.getState());
+        assertSame(second, bag.borrow(0, TimeUnit.MILLISECONDS));
+
+        bag.requite(second);
+        assertSame(second, bag.borrow(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void borrowTimesOutWhileEveryConnectionIsInUse() throws Exception {
+        addIdle();
+        assertNotNull(bag.borrow(0, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        assertNull(bag.borrow(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+
+    @Test
+    public void returnedConnectionIsHandedOffToTheWaitingThread() throws Exception {
+        PooledConnection pooled = addIdle();
+        assertSame(pooled, bag.borrow(0, TimeUnit.MILLISECONDS));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<PooledConnection> waiting = executor.submit(() -> bag.borrow(5, TimeUnit.SECONDS));
+            while (bag.getWaitingThreadCount() == 0) {
+                Thread.yield();
+            }
+            bag.requite(pooled);
+
+            assertSame(pooled, waiting.get(5, TimeUnit.SECONDS));
+            assertEquals(PooledConnection.STATE_IN_USE, pooled.getState());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void connectionRememberedByAnotherThreadIsStolenFromTheSharedList() throws Exception {
+        PooledConnection pooled = addIdle();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the other thread keeps the connection in its own list after returning it
+            executor.submit(() -> {
+                bag.requite(bag.borrow(0, TimeUnit.MILLISECONDS));
+                return null;
+            }).get(5, TimeUnit.SECONDS);
+
+            assertSame(pooled, bag.borrow(0, TimeUnit.MILLISECONDS));
+            // its list now points to a connection in use, which it must not take
+            assertNull(executor.submit(() -> bag.borrow(0, TimeUnit.MILLISECONDS)).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reservedConnectionIsNotBorrowedUntilUnreserved() throws Exception {
+        PooledConnection pooled = addIdle();
+
+        assertTrue(bag.reserve(pooled));
+        assertFalse(bag.reserve(pooled));
+        assertNull(bag.borrow(0, TimeUnit.MILLISECONDS));
+
+        bag.unreserve(pooled);
+        assertSame(pooled, bag.borrow(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void removedConnectionIsNeverBorrowedAgain() throws Exception {
+        PooledConnection pooled = addIdle();
+        assertFalse("an idle connection must be borrowed or reserved first", bag.remove(pooled));
+
+        assertSame(pooled, bag.borrow(0, TimeUnit.MILLISECONDS));
+        bag.requite(pooled);
+        assertSame(pooled, bag.borrow(0, TimeUnit.MILLISECONDS));
+        assertTrue(bag.remove(pooled));
+
+        assertEquals(PooledConnection.STATE_REMOVED, pooled.getState());
+        assertEquals(0, bag.values(PooledConnection.STATE_REMOVED).size());
+        assertNull(bag.borrow(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void concurrentBorrowersNeverShareAConnection() throws Exception {
+        int connections = 4;
+        int threads = 16;
+        int borrowsPerThread = 20_000;
+        for (int i = 0; i < connections; i++) {
+            addIdle();
+        }
+        Map<PooledConnection, Thread> holders = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger timeouts = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < borrowsPerThread; i++) {
+                        PooledConnection pooled = bag.borrow(5, TimeUnit.SECONDS);
+                        if (pooled == null) {
+                            timeouts.incrementAndGet();
+                            continue;
+                        }
+                        if (holders.putIfAbsent(pooled, Thread.currentThread()) != null) {
+                            overlaps.incrementAndGet();
+                        }
+                        if (i % 7 == 0) {
+                            Thread.yield();
+                        }
+                        holders.remove(pooled, Thread.currentThread());
+                        bag.requite(pooled);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, overlaps.get());
+        assertEquals(0, timeouts.get());
+        assertEquals(connections, bag.count(PooledConnection.STATE_NOT_IN_USE));
+        assertEquals(0, bag.count(PooledConnection.STATE_IN_USE));
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+
+    private PooledConnection addIdle() throws SQLException {
+        PooledConnection pooled = newConnection(PooledConnection.STATE_NOT_IN_USE);
+        bag.add(pooled);
+        return pooled;
+    }
+
+    /**
+     * A pool entry around a connection stub, enough for the bag, which only looks at the entry state.
+     */
+    static PooledConnection newConnection(int initialState) throws SQLException {
+        Connection connection = (Connection) Proxy.newProxyInstance(ConcurrentBagTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getTransactionIsolation" -> Connection.TRANSACTION_READ_COMMITTED;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "connection stub";
+                    default -> null;
+                });
+        return new PooledConnection(null, connection, null, initialState);
+    }
+}
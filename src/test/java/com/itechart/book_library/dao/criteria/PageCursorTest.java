@@ -0,0 +1,87 @@
+package com.itechart.book_library.dao.criteria;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PageCursorTest {
+
+    @Test
+    public void decodesWhatItEncodes() {
+        for (int bookId : new int[]{0, 1, 42, 999_999, Integer.MAX_VALUE}) {
+            assertRoundTrip(PageCursor.next(bookId));
+            assertRoundTrip(PageCursor.previous(bookId));
+        }
+    }
+
+    @Test
+    public void encodesToAnUrlSafeTokenWithoutPadding() {
+        String token = PageCursor.previous(Integer.MAX_VALUE).encode();
+
+        assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+        assertNotEquals(token, PageCursor.next(Integer.MAX_VALUE).encode());
+    }
+
+    @Test
+    public void ignoresMissingTokens() {
+        assertFalse(PageCursor.decode(null).isPresent());
+        assertFalse(PageCursor.decode("").isPresent());
+        assertFalse(PageCursor.decode("  ").isPresent());
+    }
+
+    @Test
+    public void rejectsTamperedTokens() {
+        String[] tampered = {
+                "not base64!",
+                "%%%",
+                token(""),
+                token("n"),
+                token("x12"),
+                token("N12"),
+                token("n12abc"),
+                token("n 12"),
+                token("n+12"),
+                token("n012"),
+                token("n-5"),
+                token("n99999999999"),
+                token("p12;DROP TABLE book"),
+                // the padded form of a valid token is not the token encode() returns
+                Base64.getUrlEncoder().encodeToString("n1".getBytes(StandardCharsets.UTF_8))
+        };
+        for (String token : tampered) {
+            assertEquals(token, Optional.empty(), PageCursor.decode(token));
+        }
+    }
+
+    @Test
+    public void rejectsAValidTokenWithAFlippedCharacter() {
+        String token = PageCursor.next(123_456).encode();
+        for (int i = 0; i < token.length(); i++) {
+            char[] chars = token.toCharArray();
+            chars[i] = chars[i] == 'A' ? 'B' : 'A';
+            String flipped = new String(chars);
+            PageCursor.decode(flipped).ifPresent(cursor -> {
+                // a flip can only land on another well-formed cursor, never on anything else
+                assertEquals(flipped, cursor.encode());
+                assertTrue(cursor.getBookId() >= 0);
+            });
+        }
+    }
+
+    private static void assertRoundTrip(PageCursor cursor) {
+        PageCursor decoded = PageCursor.decode(cursor.encode()).orElseThrow();
+        assertEquals(cursor.getDirection(), decoded.getDirection());
+        assertEquals(cursor.getBookId(), decoded.getBookId());
+    }
+
+    private static String token(String value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,174 @@
+package com.itechart.book_library.service.catalog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CatalogImporterTest {
+
+    private static final String SHA256 = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesTheCopyLineOfAPlainBook() throws IOException {
+        CatalogRecord record = record("Dune", List.of("Frank Herbert"), List.of("Science fiction"), "Chilton", null);
+
+        assertEquals("12\tDune\t{\"Frank Herbert\"}\t{\"Science fiction\"}\tChilton\t1965-08-01\t\\N\t"
+                + "978-0441013593\t\t3\t\\N\t\\N\n", write(record, null, null));
+    }
+
+    @Test
+    public void escapesTabsLineBreaksAndBackslashesOfTextFields() throws IOException {
+        CatalogRecord record = record("Tab\there", List.of("A"), List.of("G"), "C:\\books", "one\r\ntwo\nthree");
+
+        String line = write(record, null, SHA256);
+
+        assertEquals("12\tTab\\there\t{\"A\"}\t{\"G\"}\tC:\\\\books\t1965-08-01\t\\N\t978-0441013593\t"
+                + "one\\r\\ntwo\\nthree\t3\t\\N\t" + SHA256 + "\n", line);
+    }
+
+    @Test
+    public void quotesArrayElementsWithCommasQuotesBracesAndBackslashes() throws IOException {
+        List<String> authors = List.of("O\"Brien, Pat", "Back\\slash", "{Braced}", "NULL");
+        List<String> genres = List.of("Tab\tand\nline");
+        CatalogRecord record = record("Title", authors, genres, "Publisher", null);
+
+        List<String> fields = parseCopyLine(write(record, null, null));
+
+        assertEquals(authors, parseArray(fields.get(2)));
+        assertEquals(genres, parseArray(fields.get(3)));
+        assertEquals("{\"O\\\"Brien, Pat\",\"Back\\\\slash\",\"{Braced}\",\"NULL\"}", fields.get(2));
+    }
+
+    @Test
+    public void everyFieldReadsBackUnchanged() throws IOException {
+        CatalogRecord record = record("\\N is not null\t", List.of("Ä, Ö\\Ü"), List.of("\"quoted\""),
+                "Pub\rlisher", "back\\\\slashes\n");
+
+        List<String> fields = parseCopyLine(write(record, null, SHA256));
+
+        assertEquals(12, fields.size());
+        assertEquals("12", fields.get(0));
+        assertEquals(record.getTitle(), fields.get(1));
+        assertEquals(record.getPublisher(), fields.get(4));
+        assertEquals("1965-08-01", fields.get(5));
+        assertNull(fields.get(6));
+        assertEquals(record.getIsbn(), fields.get(7));
+        assertEquals(record.getDescription(), fields.get(8));
+        assertEquals("3", fields.get(9));
+        assertNull(fields.get(10));
+        assertEquals(SHA256, fields.get(11));
+    }
+
+    @Test
+    public void writesTheCoverAsAHexByteaLiteral() throws IOException {
+        byte[] image = new byte[20000];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 31);
+        }
+        Path cover = folder.newFile("cover.png").toPath();
+        Files.write(cover, image);
+        CatalogRecord record = record("Title", List.of("A"), List.of("G"), "Publisher", null);
+
+        String line = write(record, cover, null);
+        List<String> fields = parseCopyLine(line);
+
+        // the bytea literal starts with a backslash, which COPY needs doubled
+        assertEquals("\\\\x" + HexFormat.of().formatHex(image, 0, 4),
+                line.split("\t")[10].substring(0, 11));
+        assertEquals("\\x", fields.get(10).substring(0, 2));
+        assertArrayEquals(image, HexFormat.of().parseHex(fields.get(10).substring(2)));
+        assertNull(fields.get(11));
+    }
+
+    private static CatalogRecord record(String title, List<String> authors, List<String> genres, String publisher,
+                                        String description) {
+        return CatalogRecord.builder()
+                .line(12)
+                .title(title)
+                .authors(authors)
+                .genres(genres)
+                .publisher(publisher)
+                .publishDate(LocalDate.of(1965, 8, 1))
+                .isbn("978-0441013593")
+                .description(description == null ? "" : description)
+                .totalAmount(3)
+                .build();
+    }
+
+    private static String write(CatalogRecord record, Path cover, String coverSha256) throws IOException {
+        StringWriter writer = new StringWriter();
+        CatalogImporter.writeRow(writer, record, cover, coverSha256);
+        return writer.toString();
+    }
+
+    /**
+     * Splits a line of the {@code COPY} text format into its fields the way PostgreSQL reads it.
+     */
+    private static List<String> parseCopyLine(String line) {
+        assertEquals('\n', line.charAt(line.length() - 1));
+        List<String> fields = new ArrayList<>();
+        for (String raw : line.substring(0, line.length() - 1).split("\t", -1)) {
+            if (raw.equals("\\N")) {
+                fields.add(null);
+                continue;
+            }
+            StringBuilder field = new StringBuilder();
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c != '\\') {
+                    field.append(c);
+                    continue;
+                }
+                char escaped = raw.charAt(++i);
+                switch (escaped) {
+                    case 't' -> field.append('\t');
+                    case 'n' -> field.append('\n');
+                    case 'r' -> field.append('\r');
+                    case '\\' -> field.append('\\');
+                    default -> throw new AssertionError("Unexpected escape \\" + escaped + " in " + raw);
+                }
+            }
+            fields.add(field.toString());
+        }
+        return fields;
+    }
+
+    /**
+     * Reads a one-dimensional array literal of quoted elements, as PostgreSQL does for {@code text[]}.
+     */
+    private static List<String> parseArray(String literal) {
+        assertEquals('{', literal.charAt(0));
+        assertEquals('}', literal.charAt(literal.length() - 1));
+        List<String> elements = new ArrayList<>();
+        int i = 1;
+        while (i < literal.length() - 1) {
+            assertEquals('"', literal.charAt(i++));
+            StringBuilder element = new StringBuilder();
+            char c;
+            while ((c = literal.charAt(i++)) != '"') {
+                element.append(c == '\\' ? literal.charAt(i++) : c);
+            }
+            elements.add(element.toString());
+            if (literal.charAt(i) == ',') {
+                i++;
+            }
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,97 @@
+package com.itechart.book_library.service.catalog;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CsvCatalogReaderTest {
+
+    private static final String HEADER = "title,authors,genres,publisher,publish_date,isbn,total_amount,page_count,"
+            + "description,cover\r\n";
+
+    @Test
+    public void readsPlainAndQuotedFields() throws Exception {
+        CatalogReader reader = open(HEADER
+                + "Dune,Frank Herbert,Science fiction,Chilton,1965-08-01,978-0441013593,3,412,,covers/dune.jpg\r\n"
+                + "\"Tab\there, \"\"quoted\"\"\",\"O'Brien, Pat;Back\\slash\",Drama,\"Pub, Inc.\",2001-02-03,"
+                + "isbn-2,1,,\"line one\r\nline two\",\r\n");
+
+        CatalogRecord dune = reader.next();
+        assertEquals(2, dune.getLine());
+        assertEquals("Dune", dune.getTitle());
+        assertEquals(List.of("Frank Herbert"), dune.getAuthors());
+        assertEquals(LocalDate.of(1965, 8, 1), dune.getPublishDate());
+        assertEquals(Integer.valueOf(412), dune.getPageCount());
+        assertEquals("", dune.getDescription());
+        assertEquals("covers/dune.jpg", dune.getCoverPath());
+
+        CatalogRecord quoted = reader.next();
+        assertEquals(3, quoted.getLine());
+        assertEquals("Tab\there, \"quoted\"", quoted.getTitle());
+        assertEquals(List.of("O'Brien, Pat", "Back\\slash"), quoted.getAuthors());
+        assertEquals("Pub, Inc.", quoted.getPublisher());
+        assertNull(quoted.getPageCount());
+        assertEquals("line one\r\nline two", quoted.getDescription());
+        assertNull(quoted.getCoverPath());
+
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void skipsTheByteOrderMarkAndBlankLinesAndIgnoresUnknownColumns() throws Exception {
+        CatalogReader reader = open("\uFEFFTitle,Authors,Genres,Publisher,Publish_Date,ISBN,Total_Amount,Shelf\n"
+                + "\n"
+                + "Emma,Jane Austen,Novel,Murray,1815-12-23,isbn-1,2,B4\n");
+
+        CatalogRecord emma = reader.next();
+        assertEquals(3, emma.getLine());
+        assertEquals("Emma", emma.getTitle());
+        assertEquals(2, emma.getTotalAmount());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void rejectsAnInvalidRowAndGoesOnWithTheNextOne() throws Exception {
+        CatalogReader reader = open(HEADER
+                + "No amount,A,G,P,2001-02-03,isbn-1,,,,\n"
+                + "Bad date,A,G,P,03.02.2001,isbn-2,1,,,\n"
+                + "Too few,A,G\n"
+                + "Good,A,G,P,2001-02-03,isbn-3,1,,,\n");
+
+        assertRejected(reader, 2, "no total_amount");
+        assertRejected(reader, 3, "publish_date is not a yyyy-MM-dd date");
+        assertRejected(reader, 4, "3 fields instead of 10");
+        assertEquals("Good", reader.next().getTitle());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void rejectsAnUnterminatedQuotedField() throws Exception {
+        CatalogReader reader = open(HEADER + "\"Open,A,G,P,2001-02-03,isbn-1,1,,,\n");
+
+        assertRejected(reader, 2, "unterminated quoted field");
+    }
+
+    private static CatalogReader open(String content) {
+        return CatalogReader.open(CatalogFormat.CSV, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertRejected(CatalogReader reader, long line, String reason) throws IOException {
+        try {
+            reader.next();
+            fail("Line " + line + " should be rejected");
+        } catch (InvalidRecordException e) {
+            assertEquals(line, e.getLine());
+            assertTrue(e.getMessage(), e.getMessage().contains(reason));
+        }
+    }
+}